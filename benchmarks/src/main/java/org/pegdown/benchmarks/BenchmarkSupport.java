@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown.benchmarks;
+
+import org.parboiled.common.FileUtils;
+import org.pegdown.Extensions;
+import org.pegdown.MarkdownGenerator;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Helpers shared by the benchmarks.
+ */
+public final class BenchmarkSupport {
+
+    private BenchmarkSupport() {}
+
+    /**
+     * Resolves an extension spec like "ALL" or "TABLES+FENCED_CODE_BLOCKS" against the constants in
+     * {@link Extensions}.
+     */
+    public static int extensions(String spec) {
+        int options = Extensions.NONE;
+        for (String name : spec.split("\\+")) {
+            try {
+                options |= Extensions.class.getField(name.trim()).getInt(null);
+            } catch (Exception e) {
+                throw new IllegalArgumentException("Unknown extension '" + name + "'");
+            }
+        }
+        return options;
+    }
+
+    /**
+     * Loads a benchmark corpus from the classpath, which is either a single resource (like "benchmark.text")
+     * or a resource directory (like "MarkdownTest103"), in which case all its markdown files are loaded.
+     * Several resources can be combined into one corpus by separating them with commas.
+     * The special corpus "generated" consists of ten documents of about 8 KB produced by the
+     * {@link MarkdownGenerator} with its default configuration.
+     */
+    public static char[][] loadCorpus(String name) {
+        if (name.indexOf(',') >= 0) {
+            List<char[]> documents = new ArrayList<char[]>();
+            for (String part : name.split(",")) {
+                documents.addAll(Arrays.asList(loadCorpus(part.trim())));
+            }
+            return documents.toArray(new char[documents.size()][]);
+        }
+        if (name.equals("generated")) {
+            char[][] documents = new char[10][];
+            for (int i = 0; i < documents.length; i++) {
+                documents[i] = new MarkdownGenerator(i).generate(8000).toCharArray();
+            }
+            return documents;
+        }
+        URL url = BenchmarkSupport.class.getClassLoader().getResource(name);
+        if (url == null) throw new IllegalArgumentException("Corpus '" + name + "' not found");
+        File file;
+        try {
+            file = new File(url.toURI());
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException("Corpus '" + name + "' is not a file or directory: " + url);
+        }
+        if (!file.isDirectory()) return new char[][] {FileUtils.readAllChars(file)};
+
+        File[] files = file.listFiles();
+        Arrays.sort(files);
+        List<char[]> documents = new ArrayList<char[]>();
+        for (File document : files) {
+            if (document.getName().endsWith(".md") || document.getName().endsWith(".text")) {
+                documents.add(FileUtils.readAllChars(document));
+            }
+        }
+        return documents.toArray(new char[documents.size()][]);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.pegdown.Extensions;
+import org.pegdown.PegDownProcessor;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of the individual extensions: for every extension the corpus exercising it is rendered
+ * (parse + serialize) once with only that extension enabled and once with Extensions.NONE as the baseline.
+ * Use {@link ExtensionCostReport} to run the complete matrix including allocation figures.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExtensionCostBenchmark {
+
+    /**
+     * The corpora used for the individual extensions, keyed by extension spec (see BenchmarkSupport.extensions).
+     */
+    public static final Map<String, String> CORPORA = new LinkedHashMap<String, String>();
+
+    static {
+        CORPORA.put("NONE", "benchmark.text");
+        CORPORA.put("SMARTS", "pegdown/Smartypants.md");
+        CORPORA.put("QUOTES", "pegdown/Smartypants.md,pegdown/Quoted Blockquote.md");
+        CORPORA.put("ABBREVIATIONS", "pegdown/Abbreviations.md,PhpMarkdownExtra/Abbr.md,Maruku/abbreviations.md");
+        CORPORA.put("HARDWRAPS", "pegdown/Linebreaks.md,pegdown/Emph_With_Linebreaks.md");
+        CORPORA.put("AUTOLINKS", "pegdown/Autolinks.md,pegdown/Parens_in_URL.md");
+        CORPORA.put("TABLES", "pegdown/Tables.md,PhpMarkdownExtra/Tables.md,Maruku/extra_table1.md");
+        CORPORA.put("DEFINITIONS", "PhpMarkdownExtra/Definition_Lists.md,Maruku/extra_dl.md");
+        CORPORA.put("FENCED_CODE_BLOCKS", "pegdown/GFM_Fenced_Code_Blocks.md,PhpMarkdownExtra/Fenced_Code_Blocks.md");
+        CORPORA.put("WIKILINKS", "pegdown/Wikilinks.md");
+        CORPORA.put("STRIKETHROUGH", "pegdown/Strikethrough.md");
+        CORPORA.put("SUPPRESS_HTML_BLOCKS", "pegdown/HTML suppression.md,Maruku/html2.md,Maruku/html3.md");
+        CORPORA.put("SUPPRESS_INLINE_HTML", "pegdown/HTML suppression.md,Maruku/inline_html.md");
+        CORPORA.put("SUPPRESS_ALL_HTML", "pegdown/HTML suppression.md,Maruku/html2.md,Maruku/inline_html.md");
+        CORPORA.put("ALL", "benchmark.text");
+    }
+
+    // must list the same values as CORPORA, JMH requires the parameter values to be constants
+    @Param({"NONE", "SMARTS", "QUOTES", "ABBREVIATIONS", "HARDWRAPS", "AUTOLINKS", "TABLES", "DEFINITIONS",
+            "FENCED_CODE_BLOCKS", "WIKILINKS", "STRIKETHROUGH", "SUPPRESS_HTML_BLOCKS", "SUPPRESS_INLINE_HTML",
+            "SUPPRESS_ALL_HTML", "ALL"})
+    public String extension;
+
+    private PegDownProcessor baselineProcessor;
+    private PegDownProcessor processor;
+    private char[][] sources;
+
+    @Setup
+    public void setup() {
+        String corpus = CORPORA.get(extension);
+        if (corpus == null) throw new IllegalArgumentException("No corpus defined for extension '" + extension + "'");
+        baselineProcessor = new PegDownProcessor(Extensions.NONE, 60000L);
+        processor = new PegDownProcessor(BenchmarkSupport.extensions(extension), 60000L);
+        sources = BenchmarkSupport.loadCorpus(corpus);
+    }
+
+    @Benchmark
+    public void baseline(Blackhole blackhole) {
+        for (char[] source : sources) {
+            blackhole.consume(baselineProcessor.markdownToHtml(source));
+        }
+    }
+
+    @Benchmark
+    public void enabled(Blackhole blackhole) {
+        for (char[] source : sources) {
+            blackhole.consume(processor.markdownToHtml(source));
+        }
+    }
+}
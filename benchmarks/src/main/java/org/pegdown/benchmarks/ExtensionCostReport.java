@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Runs the {@link ExtensionCostBenchmark} with the gc profiler and writes the extension cost matrix as CSV
+ * (one row per extension with baseline and enabled time and allocation per corpus rendering) next to the raw
+ * JMH JSON results, so that the figures can be tracked from release to release.
+ *
+ * Usage: ExtensionCostReport [JMH options], the result file defaults to "extension-costs.json" (-rff),
+ * the CSV is written to the same path with a ".csv" extension.
+ */
+public class ExtensionCostReport {
+
+    static final String ALLOC_NORM = "\u00b7gc.alloc.rate.norm";
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        String jsonFile = commandLine.getResult().orElse("extension-costs.json");
+        String csvFile = (jsonFile.endsWith(".json") ? jsonFile.substring(0, jsonFile.length() - 5) : jsonFile) + ".csv";
+
+        Options options = new OptionsBuilder()
+                .parent(commandLine)
+                .include(ExtensionCostBenchmark.class.getName() + "\\.")
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(jsonFile)
+                .build();
+        Collection<RunResult> results = new Runner(options).run();
+
+        Map<String, Row> rows = new LinkedHashMap<String, Row>();
+        for (String extension : ExtensionCostBenchmark.CORPORA.keySet()) rows.put(extension, new Row());
+        for (RunResult result : results) {
+            Row row = rows.get(result.getParams().getParam("extension"));
+            if (row == null) continue;
+            String benchmark = result.getParams().getBenchmark();
+            Result<?> alloc = result.getSecondaryResults().get(ALLOC_NORM);
+            double time = result.getPrimaryResult().getScore();
+            double bytes = alloc != null ? alloc.getScore() : Double.NaN;
+            if (benchmark.endsWith(".baseline")) {
+                row.baselineTime = time;
+                row.baselineAlloc = bytes;
+            } else {
+                row.enabledTime = time;
+                row.enabledAlloc = bytes;
+            }
+        }
+        writeCsv(rows, csvFile);
+        System.out.println("Extension cost matrix written to " + csvFile + " (raw results in " + jsonFile + ')');
+    }
+
+    static void writeCsv(Map<String, Row> rows, String file) throws IOException {
+        PrintWriter out = new PrintWriter(new FileWriter(file));
+        try {
+            out.println("extension,corpus,baseline_us,enabled_us,time_overhead_pct,baseline_alloc_bytes,enabled_alloc_bytes,alloc_overhead_pct");
+            for (Map.Entry<String, Row> entry : rows.entrySet()) {
+                Row row = entry.getValue();
+                if (Double.isNaN(row.baselineTime) && Double.isNaN(row.enabledTime)) continue; // filtered out
+                out.println(String.format(Locale.ROOT, "%s,\"%s\",%.3f,%.3f,%.1f,%.0f,%.0f,%.1f",
+                        entry.getKey(), ExtensionCostBenchmark.CORPORA.get(entry.getKey()),
+                        row.baselineTime, row.enabledTime, overhead(row.baselineTime, row.enabledTime),
+                        row.baselineAlloc, row.enabledAlloc, overhead(row.baselineAlloc, row.enabledAlloc)));
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static double overhead(double baseline, double enabled) {
+        return (enabled / baseline - 1.0) * 100.0;
+    }
+
+    static class Row {
+        double baselineTime = Double.NaN;
+        double enabledTime = Double.NaN;
+        double baselineAlloc = Double.NaN;
+        double enabledAlloc = Double.NaN;
+    }
+}
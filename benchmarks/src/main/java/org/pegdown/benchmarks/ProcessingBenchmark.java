@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.pegdown.LinkRenderer;
+import org.pegdown.PegDownProcessor;
+import org.pegdown.ToHtmlSerializer;
+import org.pegdown.ast.RootNode;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures parsing, serialization and end-to-end markdownToHtml of a complete corpus per invocation.
+ * Run with "-prof gc" to also see the allocation rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ProcessingBenchmark {
+
+    @Param({"NONE", "ALL"})
+    public String extensions;
+
+    @Param({"benchmark.text", "MarkdownTest103", "PhpMarkdownExtra", "Maruku", "generated"})
+    public String corpus;
+
+    private PegDownProcessor processor;
+    private char[][] sources;
+    private char[][] preparedSources;
+    private RootNode[] asts;
+
+    @Setup
+    public void setup() {
+        processor = new PegDownProcessor(BenchmarkSupport.extensions(extensions), 60000L);
+        sources = BenchmarkSupport.loadCorpus(corpus);
+        preparedSources = new char[sources.length][];
+        asts = new RootNode[sources.length];
+        for (int i = 0; i < sources.length; i++) {
+            preparedSources[i] = processor.prepareSource(sources[i]);
+            asts[i] = processor.parser.parse(preparedSources[i]);
+        }
+    }
+
+    @Benchmark
+    public void parse(Blackhole blackhole) {
+        for (char[] source : preparedSources) {
+            blackhole.consume(processor.parser.parse(source));
+        }
+    }
+
+    @Benchmark
+    public void serialize(Blackhole blackhole) {
+        for (RootNode ast : asts) {
+            blackhole.consume(new ToHtmlSerializer(new LinkRenderer()).toHtml(ast));
+        }
+    }
+
+    @Benchmark
+    public void markdownToHtml(Blackhole blackhole) {
+        for (char[] source : sources) {
+            blackhole.consume(processor.markdownToHtml(source));
+        }
+    }
+}
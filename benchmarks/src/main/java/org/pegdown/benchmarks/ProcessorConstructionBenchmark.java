@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.pegdown.PegDownProcessor;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of creating PegDownProcessor instances, with and without building the parser's rule graph
+ * (which happens lazily on the first parse).
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ProcessorConstructionBenchmark {
+
+    @Param({"NONE", "ALL"})
+    public String extensions;
+
+    private int options;
+
+    @Setup
+    public void setup() {
+        options = BenchmarkSupport.extensions(extensions);
+    }
+
+    @Benchmark
+    public PegDownProcessor construct() {
+        return new PegDownProcessor(options);
+    }
+
+    @Benchmark
+    public String constructAndProcessEmptyDocument() {
+        return new PegDownProcessor(options).markdownToHtml("");
+    }
+}
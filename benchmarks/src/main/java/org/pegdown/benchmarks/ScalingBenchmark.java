@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown.benchmarks;
+
+import org.pegdown.LinkRenderer;
+import org.pegdown.MarkdownGenerator;
+import org.pegdown.PegDownProcessor;
+import org.pegdown.ToHtmlSerializer;
+import org.pegdown.ast.Node;
+import org.pegdown.ast.RootNode;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Measures how parsing and serialization scale with the document size, from 1 KB up to (by default) 100 MB.
+ * The documents are built by concatenating the documents of the MarkdownTest103 corpus and benchmark.text (and thus
+ * contain a realistic mix of blocks) up to the target size or, with the corpus "generated", by the
+ * {@link MarkdownGenerator}. For every size the parse and serialize times,
+ * the peak heap usage during parsing and the number of AST nodes are reported, together with the exponent of a
+ * power law fitted to the parse and serialize times (1.0 meaning linear growth).
+ *
+ * Usage: ScalingBenchmark [max size in bytes] [extensions] [CSV file] [corpus], e.g. "ScalingBenchmark 10000000 ALL".
+ * This is not a JMH benchmark since the larger sizes take far too long for repeated invocations. Smaller sizes are
+ * repeated until at least a second has been spent on them, the larger ones are run once after a warm-up.
+ * Give the JVM enough heap for the largest size (several GB for 100 MB).
+ */
+public class ScalingBenchmark {
+
+    static final long MIN_MEASURE_NANOS = 1000L * 1000L * 1000L;
+
+    public static void main(String[] args) throws IOException {
+        int maxSize = args.length > 0 ? Integer.parseInt(args[0]) : 100 * 1000 * 1000;
+        String extensions = args.length > 1 ? args[1] : "NONE";
+        String csvFile = args.length > 2 ? args[2] : "scaling.csv";
+        String corpusName = args.length > 3 ? args[3] : "MarkdownTest103,benchmark.text";
+
+        PegDownProcessor processor = new PegDownProcessor(BenchmarkSupport.extensions(extensions), Long.MAX_VALUE);
+        char[][] corpus = corpusName.equals("generated") ? null : BenchmarkSupport.loadCorpus(corpusName);
+
+        // warm up on the mid-sized documents so the small sizes aren't measured in the interpreter
+        char[] warmup = synthesize(corpus, 100 * 1000);
+        for (long start = System.nanoTime(); System.nanoTime() - start < 5 * MIN_MEASURE_NANOS; ) {
+            serialize(processor.parseMarkdown(warmup));
+        }
+
+        List<Result> results = new ArrayList<Result>();
+        System.out.println(String.format(Locale.ROOT, "%12s %12s %12s %10s %12s %12s %10s %12s",
+                "size", "parse ms", "parse ns/ch", "heap MB", "nodes", "serialize ms", "ser ns/ch", "html size"));
+        for (int size = 1000; size <= maxSize; size *= 10) {
+            Result result = measure(processor, synthesize(corpus, size));
+            results.add(result);
+            System.out.println(String.format(Locale.ROOT, "%12d %12.3f %12.1f %10.1f %12d %12.3f %10.1f %12d",
+                    result.size, result.parseNanos / 1e6, (double) result.parseNanos / result.size,
+                    result.peakHeapBytes / 1e6, result.nodes, result.serializeNanos / 1e6,
+                    (double) result.serializeNanos / result.size, result.htmlSize));
+        }
+
+        if (results.size() > 1) {
+            double[] parse = fit(results, true);
+            double[] serialize = fit(results, false);
+            System.out.println(String.format(Locale.ROOT, "parse time ~ %.3g * size^%.3f, serialize time ~ %.3g * size^%.3f",
+                    parse[0], parse[1], serialize[0], serialize[1]));
+        }
+        writeCsv(results, csvFile);
+    }
+
+    static class Result {
+        int size;
+        long parseNanos;
+        long serializeNanos;
+        long peakHeapBytes;
+        int nodes;
+        int htmlSize;
+    }
+
+    static Result measure(PegDownProcessor processor, char[] markdown) {
+        Result result = new Result();
+        result.size = markdown.length;
+
+        // one cold run giving us the peak heap and the AST to measure
+        System.gc();
+        resetPeakHeapUsage();
+        long baseline = heapUsage();
+        RootNode root = processor.parseMarkdown(markdown);
+        result.peakHeapBytes = peakHeapUsage() - baseline;
+        result.nodes = countNodes(root);
+        result.htmlSize = serialize(root).length();
+
+        int runs = 0;
+        long total = 0;
+        while (total < MIN_MEASURE_NANOS || runs == 0) {
+            long start = System.nanoTime();
+            processor.parseMarkdown(markdown);
+            total += System.nanoTime() - start;
+            runs++;
+        }
+        result.parseNanos = total / runs;
+
+        runs = 0;
+        total = 0;
+        while (total < MIN_MEASURE_NANOS || runs == 0) {
+            long start = System.nanoTime();
+            serialize(root);
+            total += System.nanoTime() - start;
+            runs++;
+        }
+        result.serializeNanos = total / runs;
+        return result;
+    }
+
+    /**
+     * Concatenates the corpus documents (separated by blank lines) until the given size is reached.
+     * Without a corpus the document is produced by the MarkdownGenerator (and might be slightly larger).
+     */
+    static char[] synthesize(char[][] corpus, int size) {
+        if (corpus == null) return new MarkdownGenerator(42).generate(size).toCharArray();
+        StringBuilder sb = new StringBuilder(size + 1000);
+        for (int i = 0; sb.length() < size; i++) {
+            char[] document = corpus[i % corpus.length];
+            sb.append(document, 0, Math.min(document.length, size - sb.length())).append("\n\n");
+        }
+        sb.setLength(size);
+        return sb.toString().toCharArray();
+    }
+
+    static String serialize(RootNode root) {
+        return new ToHtmlSerializer(new LinkRenderer()).toHtml(root);
+    }
+
+    static int countNodes(Node node) {
+        int count = 1;
+        for (Node child : node.getChildren()) count += countNodes(child);
+        return count;
+    }
+
+    /**
+     * Least squares fit of log(time) = log(a) + b * log(size), returns {a, b}.
+     */
+    static double[] fit(List<Result> results, boolean parse) {
+        int n = results.size();
+        double sx = 0, sy = 0, sxx = 0, sxy = 0;
+        for (Result result : results) {
+            double x = Math.log(result.size);
+            double y = Math.log(parse ? result.parseNanos : result.serializeNanos);
+            sx += x;
+            sy += y;
+            sxx += x * x;
+            sxy += x * y;
+        }
+        double b = (n * sxy - sx * sy) / (n * sxx - sx * sx);
+        double a = Math.exp((sy - b * sx) / n);
+        return new double[] {a, b};
+    }
+
+    static void writeCsv(List<Result> results, String file) throws IOException {
+        PrintWriter out = new PrintWriter(new FileWriter(file));
+        try {
+            out.println("size,parse_ns,serialize_ns,peak_heap_bytes,nodes,html_size");
+            for (Result result : results) {
+                out.println(result.size + "," + result.parseNanos + ',' + result.serializeNanos + ',' +
+                        result.peakHeapBytes + ',' + result.nodes + ',' + result.htmlSize);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static List<MemoryPoolMXBean> heapPools() {
+        List<MemoryPoolMXBean> pools = new ArrayList<MemoryPoolMXBean>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) pools.add(pool);
+        }
+        return pools;
+    }
+
+    private static void resetPeakHeapUsage() {
+        for (MemoryPoolMXBean pool : heapPools()) pool.resetPeakUsage();
+    }
+
+    // the sum of the pool peaks is an upper bound, since the pools usually don't peak at the same time
+    private static long peakHeapUsage() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : heapPools()) peak += pool.getPeakUsage().getUsed();
+        return peak;
+    }
+
+    private static long heapUsage() {
+        long used = 0;
+        for (MemoryPoolMXBean pool : heapPools()) used += pool.getUsage().getUsed();
+        return used;
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+import org.pegdown.ProcessingListener;
+
+import java.util.Arrays;
+
+/**
+ * A ProcessingListener emitting Java Flight Recorder events for all processing phases of a PegDownProcessor, so that
+ * markdown processing can be correlated with GC and CPU activity in a recording.
+ * Every event spans its phase: it begins when the phase is started and is committed when the phase ends, so nested
+ * parses show up within the parse of their document. Events of phases that end without notification (like cancelled
+ * parses) are dropped. The {@code time} field of the serialization event holds the time spent in the serializer, which
+ * for block-by-block rendering is less than the duration of the event, since the event spans the parse as well.
+ * Disabled events cost next to nothing, so the listener can stay installed in production.
+ *
+ * Usage: new PegDownProcessor(parser, null, null, new JfrProcessingListener(options))
+ */
+public class JfrProcessingListener extends ProcessingListener {
+
+    private final int options;
+    private final ThreadLocal<Spans> spans = ThreadLocal.withInitial(Spans::new);
+
+    /**
+     * @param options the extensions the processor was created with, recorded with each parse event
+     */
+    public JfrProcessingListener(int options) {
+        this.options = options;
+    }
+
+    @Override
+    public void sourcePreparationStarted(int sourceLength) {
+        spans.get().prepare = begin(new PrepareEvent());
+    }
+
+    @Override
+    public void sourcePrepared(int sourceLength, long nanos) {
+        Spans spans = this.spans.get();
+        PrepareEvent event = spans.prepare != null ? spans.prepare : new PrepareEvent();
+        spans.prepare = null;
+        if (event.isEnabled()) {
+            event.sourceLength = sourceLength;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void parseStarted(int depth, int inputLength) {
+        Spans spans = this.spans.get();
+        if (depth >= spans.parses.length) spans.parses = Arrays.copyOf(spans.parses, 2 * depth);
+        spans.parses[depth] = begin(new ParseEvent());
+        if (depth == 0) {
+            Arrays.fill(spans.parses, 1, spans.parses.length, null); // drop the nested parses of a failed parse
+            spans.timeout = begin(new ParsingTimeoutEvent());
+        }
+    }
+
+    @Override
+    public void parsed(int depth, int inputLength, long nanos) {
+        Spans spans = this.spans.get();
+        ParseEvent event = depth < spans.parses.length ? spans.parses[depth] : null;
+        if (event == null) event = new ParseEvent();
+        else spans.parses[depth] = null;
+        if (depth == 0) spans.timeout = null;
+        if (event.isEnabled()) {
+            event.depth = depth;
+            event.inputLength = inputLength;
+            event.options = options;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void parsingTimedOut(int inputLength, long nanos) {
+        Spans spans = this.spans.get();
+        ParsingTimeoutEvent event = spans.timeout != null ? spans.timeout : new ParsingTimeoutEvent();
+        spans.timeout = null;
+        Arrays.fill(spans.parses, null);
+        if (event.isEnabled()) {
+            event.inputLength = inputLength;
+            event.options = options;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void serializationStarted() {
+        spans.get().serialize = begin(new SerializeEvent());
+    }
+
+    @Override
+    public void serialized(int htmlLength, long nanos) {
+        Spans spans = this.spans.get();
+        SerializeEvent event = spans.serialize != null ? spans.serialize : new SerializeEvent();
+        spans.serialize = null;
+        if (event.isEnabled()) {
+            event.htmlLength = htmlLength;
+            event.time = nanos;
+            event.commit();
+        }
+    }
+
+    private static <T extends Event> T begin(T event) {
+        if (!event.isEnabled()) return null;
+        event.begin();
+        return event;
+    }
+
+    // the events of the phases currently running on a thread
+    private static class Spans {
+        PrepareEvent prepare;
+        ParseEvent[] parses = new ParseEvent[4]; // by depth
+        ParsingTimeoutEvent timeout;
+        SerializeEvent serialize;
+    }
+
+    @Name("org.pegdown.Prepare")
+    @Label("Markdown Source Preparation")
+    @Category("pegdown")
+    @StackTrace(false)
+    static class PrepareEvent extends Event {
+        @Label("Source Length")
+        @Description("The length of the markdown source in characters")
+        int sourceLength;
+    }
+
+    @Name("org.pegdown.Parse")
+    @Label("Markdown Parse")
+    @Description("A parse of a complete document (depth 0) or of a nested list item or blockquote (depth > 0)")
+    @Category("pegdown")
+    @StackTrace(false)
+    static class ParseEvent extends Event {
+        @Label("Depth")
+        int depth;
+
+        @Label("Input Length")
+        int inputLength;
+
+        @Label("Options")
+        @Description("The enabled extensions, see org.pegdown.Extensions")
+        int options;
+    }
+
+    @Name("org.pegdown.ParsingTimeout")
+    @Label("Markdown Parsing Timeout")
+    @Category("pegdown")
+    static class ParsingTimeoutEvent extends Event {
+        @Label("Input Length")
+        int inputLength;
+
+        @Label("Options")
+        @Description("The enabled extensions, see org.pegdown.Extensions")
+        int options;
+    }
+
+    @Name("org.pegdown.Serialize")
+    @Label("HTML Serialization")
+    @Category("pegdown")
+    @StackTrace(false)
+    static class SerializeEvent extends Event {
+        @Label("HTML Length")
+        int htmlLength;
+
+        @Label("Serializer Time")
+        @Description("The time spent in the serializer, less than the duration when rendering block by block")
+        @Timespan
+        long time;
+    }
+}
@@ -0,0 +1,69 @@
+package org.pegdown.jfr
+
+import org.specs2.mutable.Specification
+import org.parboiled.Parboiled
+import org.pegdown.{Parser, PegDownProcessor}
+import org.pegdown.Extensions._
+import jdk.jfr.Recording
+import jdk.jfr.consumer.{RecordedEvent, RecordingFile}
+import java.io.File
+import scala.collection.JavaConversions._
+
+class JfrProcessingListenerSpec extends Specification {
+
+  def record(work: => Unit): List[RecordedEvent] = {
+    val recording = new Recording
+    List("org.pegdown.Prepare", "org.pegdown.Parse", "org.pegdown.ParsingTimeout", "org.pegdown.Serialize")
+      .foreach(name => recording.enable(name).withThreshold(java.time.Duration.ZERO))
+    recording.start()
+    work
+    recording.stop()
+    val file = File.createTempFile("pegdown", ".jfr")
+    try {
+      recording.dump(file.toPath)
+      RecordingFile.readAllEvents(file.toPath).toList
+    } finally {
+      recording.close()
+      file.delete()
+    }
+  }
+
+  def processor(timeout: Long) = new PegDownProcessor(Parboiled.createParser[Parser, AnyRef](classOf[Parser],
+    new java.lang.Integer(NONE), new java.lang.Long(timeout), Parser.DefaultParseRunnerProvider), null, null,
+    new JfrProcessingListener(NONE))
+
+  def named(events: List[RecordedEvent], name: String) = events.filter(_.getEventType.getName == name)
+
+  "The JfrProcessingListener" should {
+
+    "emit events spanning the processing phases" in {
+      val markdown = "* first\n* second\n\nSome *text*"
+      val events = record(processor(2000).markdownToHtml(markdown))
+
+      val prepare = named(events, "org.pegdown.Prepare")
+      prepare.map(_.getInt("sourceLength")) === List(markdown.length)
+
+      val parses = named(events, "org.pegdown.Parse")
+      val document = parses.find(_.getInt("depth") == 0).get
+      val nested = parses.filter(_.getInt("depth") > 0)
+      document.getInt("inputLength") === markdown.length + 2
+      document.getInt("options") === NONE
+      document.getDuration.isZero must beFalse
+      nested must not(beEmpty)
+      nested.forall(event => !event.getStartTime.isBefore(document.getStartTime) &&
+        !event.getEndTime.isAfter(document.getEndTime)) must beTrue
+
+      val serialize = named(events, "org.pegdown.Serialize")
+      serialize.map(_.getInt("htmlLength")) === List(processor(2000).markdownToHtml(markdown).length)
+      serialize.head.getDuration.toNanos must be_>=(serialize.head.getLong("time"))
+      !serialize.head.getStartTime.isBefore(document.getEndTime) must beTrue
+      named(events, "org.pegdown.ParsingTimeout") must beEmpty
+    }
+
+    "emit a timeout event instead of a parse event for documents hitting the timeout" in {
+      val events = record(processor(-1).markdownToHtml("* first\n* second"))
+      named(events, "org.pegdown.Parse").filter(_.getInt("depth") == 0) must beEmpty
+      named(events, "org.pegdown.ParsingTimeout").map(_.getInt("inputLength")) === List(18)
+    }
+  }
+}
@@ -0,0 +1,41 @@
+import sbt._
+import Keys._
+
+object PegDownBuild extends Build {
+
+  val jmhVersion = "1.21"
+
+  // the library itself is configured in the build.sbt of the root directory
+  lazy val pegdown = Project("pegdown", file("."))
+
+  // JMH benchmarks, run with e.g. `sbt "benchmarks/run -prof gc ProcessingBenchmark"`
+  lazy val benchmarks = Project("benchmarks", file("benchmarks"))
+    .dependsOn(pegdown % "compile->compile;compile->test") // for the MarkdownGenerator
+    .settings(
+      libraryDependencies ++= Seq(
+        "org.openjdk.jmh" % "jmh-core" % jmhVersion,
+        "org.openjdk.jmh" % "jmh-generator-annprocess" % jmhVersion
+      ),
+      javacOptions ++= Seq("-source", "1.7", "-target", "1.7", "-encoding", "utf8"),
+      // the benchmark corpora are the test resources of the library
+      unmanagedResourceDirectories in Compile <+= baseDirectory(_ / ".." / "src" / "test" / "resources"),
+      mainClass in (Compile, run) := Some("org.openjdk.jmh.Main"),
+      fork in run := true,
+      // the ScalingBenchmark needs a few GB of heap for its 100 MB document
+      javaOptions in run += "-Xmx6g",
+      crossPaths := false,
+      autoScalaLibrary := false,
+      publishArtifact := false
+    )
+
+  // Java Flight Recorder events, kept out of the library since they require the jdk.jfr API (JDK 11 or 8u262+)
+  lazy val jfr = Project("pegdown-jfr", file("jfr"))
+    .dependsOn(pegdown)
+    .settings(
+      javacOptions ++= Seq("-source", "1.8", "-target", "1.8", "-encoding", "utf8"),
+      scalaVersion := "2.9.3",
+      libraryDependencies += "org.specs2" %% "specs2" % "1.12.4.1" % "test",
+      crossPaths := false,
+      autoScalaLibrary := false
+    )
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown;
+
+/**
+ * Constants of the binary AST format written by {@link BinaryAstWriter} and read by {@link BinaryAstReader}.
+ * <p>
+ * The format starts with the magic bytes "PGDA" and a version byte, followed by the string table (the varint count
+ * of the strings and each string as the varint length of its UTF-8 bytes followed by these bytes) and the node tree.
+ * Each node is written in pre-order as its tag byte, its varint start index and zig-zag encoded varint length,
+ * its type-specific fields (strings as varint indices into the string table, with 0 denoting null) and, for
+ * super nodes, the varint count of its children followed by the children.
+ * Nodes are numbered in the order they are written, which allows the references and abbreviations lists of a
+ * RootNode (written after its children) to point to nodes of the tree.
+ */
+interface BinaryAstFormat {
+    static final byte[] MAGIC = new byte[] {'P', 'G', 'D', 'A'};
+    static final int VERSION = 1;
+
+    static final int ABBREVIATION = 1;
+    static final int AUTO_LINK = 2;
+    static final int BLOCK_QUOTE = 3;
+    static final int BULLET_LIST = 4;
+    static final int CODE = 5;
+    static final int DEFINITION_LIST = 6;
+    static final int DEFINITION = 7;
+    static final int DEFINITION_TERM = 8;
+    static final int EXP_IMAGE = 9;
+    static final int EXP_LINK = 10;
+    static final int HEADER = 11;
+    static final int HTML_BLOCK = 12;
+    static final int INLINE_HTML = 13;
+    static final int LIST_ITEM = 14;
+    static final int MAIL_LINK = 15;
+    static final int ORDERED_LIST = 16;
+    static final int PARA = 17;
+    static final int QUOTED = 18;
+    static final int REFERENCE = 19;
+    static final int REF_IMAGE = 20;
+    static final int REF_LINK = 21;
+    static final int ROOT = 22;
+    static final int SIMPLE = 23;
+    static final int SPECIAL_TEXT = 24;
+    static final int STRIKE = 25;
+    static final int STRONG_EMPH = 26;
+    static final int TABLE_BODY = 27;
+    static final int TABLE_CAPTION = 28;
+    static final int TABLE_CELL = 29;
+    static final int TABLE_COLUMN = 30;
+    static final int TABLE_HEADER = 31;
+    static final int TABLE = 32;
+    static final int TABLE_ROW = 33;
+    static final int VERBATIM = 34;
+    static final int WIKI_LINK = 35;
+    static final int TEXT = 36;
+    static final int SUPER = 37;
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown;
+
+import org.parboiled.common.ImmutableList;
+import org.pegdown.ast.*;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.parboiled.common.Preconditions.checkArgNotNull;
+
+/**
+ * Reads an AST written by a {@link BinaryAstWriter}.
+ * A BinaryAstReader instance is not thread-safe but can be reused.
+ */
+public class BinaryAstReader implements BinaryAstFormat {
+
+    private byte[] buf;
+    private int pos;
+    private String[] strings;
+    private final List<Node> nodes = new ArrayList<Node>();
+    private final List<SuperNode> boundNodes = new ArrayList<SuperNode>();
+    private final List<Integer> boundReferences = new ArrayList<Integer>();
+
+    /**
+     * Decodes an AST.
+     *
+     * @param bytes the binary representation as created by {@link BinaryAstWriter#write(RootNode)}
+     * @return the root of the AST
+     * @throws IllegalArgumentException if the given bytes are not a valid binary AST
+     */
+    public RootNode read(byte[] bytes) {
+        checkArgNotNull(bytes, "bytes");
+        buf = bytes;
+        pos = 0;
+        try {
+            for (byte b : MAGIC) {
+                if (readByte() != b) throw new IllegalArgumentException("Not a binary pegdown AST");
+            }
+            int version = readByte();
+            if (version != VERSION) throw new IllegalArgumentException("Unsupported binary AST version " + version);
+
+            strings = new String[readCount()];
+            for (int i = 0; i < strings.length; i++) {
+                int length = readCount();
+                strings[i] = new String(buf, pos, length, "UTF-8");
+                pos += length;
+            }
+
+            Node root = readNode();
+            if (!(root instanceof RootNode) || pos != buf.length) {
+                throw new IllegalArgumentException("Corrupt binary AST");
+            }
+            List<ReferenceNode> references = ((RootNode) root).getReferences();
+            for (int i = 0; i < boundNodes.size(); i++) {
+                ReferenceNode reference = references.get(boundReferences.get(i) - 1);
+                if (boundNodes.get(i) instanceof RefLinkNode) {
+                    ((RefLinkNode) boundNodes.get(i)).setReference(reference);
+                } else ((RefImageNode) boundNodes.get(i)).setReference(reference);
+            }
+            return (RootNode) root;
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException();
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            // corrupt trees fail in many ways, e.g. with an IndexOutOfBounds-, ClassCast- or NullPointerException
+            throw new IllegalArgumentException("Corrupt binary AST", e);
+        } catch (StackOverflowError e) {
+            throw new IllegalArgumentException("Corrupt binary AST, nested too deeply");
+        } finally {
+            buf = null;
+            strings = null;
+            nodes.clear();
+            boundNodes.clear();
+            boundReferences.clear();
+        }
+    }
+
+    private Node readNode() {
+        int tag = readByte();
+        int startIndex = readVarint();
+        int endIndex = startIndex + unZigZag(readVarint());
+        int id = nodes.size();
+        nodes.add(null); // reserve the id, nodes are numbered in pre-order
+
+        AbstractNode node;
+        switch (tag) {
+            case ROOT: {
+                RootNode root = new RootNode();
+                readChildren(root);
+                root.setReferences(ImmutableList.copyOf(this.<ReferenceNode>readNodeList()));
+                root.setAbbreviations(ImmutableList.copyOf(this.<AbbreviationNode>readNodeList()));
+                node = root;
+                break;
+            }
+            case ABBREVIATION: {
+                AbbreviationNode abbreviation = new AbbreviationNode(null);
+                abbreviation.setExpansion(readOptionalNode());
+                node = readChildren(abbreviation);
+                break;
+            }
+            case AUTO_LINK: node = new AutoLinkNode(readString()); break;
+            case BLOCK_QUOTE: node = readChildren(new BlockQuoteNode(Collections.<Node>emptyList())); break;
+            case BULLET_LIST: node = readChildren(new BulletListNode(null)); break;
+            case CODE: node = new CodeNode(readString()); break;
+            case DEFINITION_LIST: node = readChildren(new DefinitionListNode()); break;
+            case DEFINITION: node = readChildren(new DefinitionNode(null)); break;
+            case DEFINITION_TERM: node = readChildren(new DefinitionTermNode()); break;
+            case EXP_IMAGE: node = readChildren(new ExpImageNode(readString(), readString(), null)); break;
+            case EXP_LINK: node = readChildren(new ExpLinkNode(readString(), readString(), null)); break;
+            case HEADER: node = readChildren(new HeaderNode(readVarint())); break;
+            case HTML_BLOCK: node = new HtmlBlockNode(readString()); break;
+            case INLINE_HTML: node = new InlineHtmlNode(readString()); break;
+            case LIST_ITEM: node = readChildren(new ListItemNode(null)); break;
+            case MAIL_LINK: node = new MailLinkNode(readString()); break;
+            case ORDERED_LIST: node = readChildren(new OrderedListNode(null)); break;
+            case PARA: node = readChildren(new ParaNode(Collections.<Node>emptyList())); break;
+            case QUOTED: node = readChildren(new QuotedNode(QuotedNode.Type.values()[readVarint()])); break;
+            case REFERENCE: {
+                ReferenceNode reference = new ReferenceNode(null);
+                reference.setUrl(readString());
+                reference.setTitle(readString());
+                reference.setKey(readString());
+                node = readChildren(reference);
+                break;
+            }
+            case REF_IMAGE: {
+                String separatorSpace = readString();
+                RefImageNode refImage = new RefImageNode((SuperNode) readOptionalNode(), separatorSpace, null);
+                refImage.setKey(readString());
+                readReferenceBinding(refImage);
+                node = readChildren(refImage);
+                break;
+            }
+            case REF_LINK: {
+                String separatorSpace = readString();
+                RefLinkNode refLink = new RefLinkNode((SuperNode) readOptionalNode(), separatorSpace, null);
+                refLink.setKey(readString());
+                readReferenceBinding(refLink);
+                node = readChildren(refLink);
+                break;
+            }
+            case SIMPLE: node = new SimpleNode(SimpleNode.Type.values()[readVarint()]); break;
+            case SPECIAL_TEXT: node = new SpecialTextNode(readString()); break;
+            case STRIKE: node = readChildren(new StrikeNode(Collections.<Node>emptyList())); break;
+            case STRONG_EMPH: {
+                StrongEmphSuperNode strongEmph = new StrongEmphSuperNode(readString());
+                strongEmph.setClosed(readByte() != 0);
+                node = readChildren(strongEmph);
+                break;
+            }
+            case TABLE_BODY: node = readChildren(new TableBodyNode()); break;
+            case TABLE_CAPTION: node = readChildren(new TableCaptionNode()); break;
+            case TABLE_CELL: {
+                TableCellNode cell = new TableCellNode();
+                cell.setColSpan(readVarint());
+                node = readChildren(cell);
+                break;
+            }
+            case TABLE_COLUMN: {
+                TableColumnNode column = new TableColumnNode();
+                switch (TableColumnNode.Alignment.values()[readVarint()]) {
+                    case Left: column.markLeftAligned(); break;
+                    case Right: column.markRightAligned(); break;
+                    case Center: column.markLeftAligned(); column.markRightAligned(); break;
+                }
+                node = readChildren(column);
+                break;
+            }
+            case TABLE_HEADER: node = readChildren(new TableHeaderNode()); break;
+            case TABLE: {
+                TableNode table = new TableNode();
+                for (int i = readCount(); i > 0; i--) {
+                    table.addColumn((TableColumnNode) readNode());
+                }
+                node = readChildren(table);
+                break;
+            }
+            case TABLE_ROW: node = readChildren(new TableRowNode()); break;
+            case VERBATIM: node = new VerbatimNode(readString(), readString()); break;
+            case WIKI_LINK: node = new WikiLinkNode(readString()); break;
+            case TEXT: node = new TextNode(readString()); break;
+            case SUPER: node = readChildren(new SuperNode()); break;
+            default:
+                throw new IllegalArgumentException("Corrupt binary AST, unknown node tag " + tag);
+        }
+        node.setStartIndex(startIndex);
+        node.setEndIndex(endIndex);
+        nodes.set(id, node);
+        return node;
+    }
+
+    private SuperNode readChildren(SuperNode node) {
+        List<Node> children = node.getChildren();
+        children.clear(); // drop the null child some node constructors require
+        for (int i = readCount(); i > 0; i--) {
+            children.add(readNode());
+        }
+        return node;
+    }
+
+    private Node readOptionalNode() {
+        return readByte() != 0 ? readNode() : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends Node> List<T> readNodeList() {
+        int count = readCount();
+        List<T> list = new ArrayList<T>(count);
+        for (int i = 0; i < count; i++) {
+            int id = readVarint();
+            list.add((T) (id > 0 ? nodes.get(id - 1) : readNode()));
+        }
+        return list;
+    }
+
+    private void readReferenceBinding(SuperNode node) {
+        int index = readVarint();
+        if (index > 0) {
+            boundNodes.add(node);
+            boundReferences.add(index);
+        }
+    }
+
+    private String readString() {
+        int index = readVarint();
+        return index > 0 ? strings[index - 1] : null;
+    }
+
+    private int readByte() {
+        return buf[pos++];
+    }
+
+    private int readVarint() {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = buf[pos++];
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+        throw new IllegalArgumentException("Corrupt binary AST, malformed varint");
+    }
+
+    // reads the number of elements (or bytes) following, each of which occupies at least one byte
+    private int readCount() {
+        int count = readVarint();
+        if (count < 0 || count > buf.length - pos) {
+            throw new IllegalArgumentException("Corrupt binary AST, invalid count " + count);
+        }
+        return count;
+    }
+
+    private static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
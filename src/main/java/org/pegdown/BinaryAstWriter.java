@@ -0,0 +1,389 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown;
+
+import org.pegdown.ast.*;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.parboiled.common.Preconditions.checkArgNotNull;
+
+/**
+ * Writes an AST in the compact binary format described in {@link BinaryAstFormat}, so it can be stored and later
+ * be rehydrated with a {@link BinaryAstReader} much faster than reparsing the markdown source.
+ * Custom node implementations (e.g. ones created by parser plugins) are not supported.
+ * A BinaryAstWriter instance is not thread-safe but can be reused.
+ */
+public class BinaryAstWriter implements Visitor, BinaryAstFormat {
+
+    private final Bytes body = new Bytes();
+    private final Map<String, Integer> stringIndices = new HashMap<String, Integer>();
+    private final List<String> strings = new ArrayList<String>();
+    private final Map<Node, Integer> nodeIds = new IdentityHashMap<Node, Integer>();
+    private final Map<ReferenceNode, Integer> documentReferences = new IdentityHashMap<ReferenceNode, Integer>();
+    private int nodeCount;
+
+    /**
+     * Encodes the given AST.
+     *
+     * @param astRoot the root of the AST
+     * @return the binary representation
+     */
+    public byte[] write(RootNode astRoot) {
+        checkArgNotNull(astRoot, "astRoot");
+        try {
+            List<ReferenceNode> references = astRoot.getReferences();
+            for (int i = 0; i < references.size(); i++) {
+                documentReferences.put(references.get(i), i);
+            }
+            astRoot.accept(this);
+
+            Bytes out = new Bytes();
+            out.writeBytes(MAGIC, MAGIC.length);
+            out.writeByte(VERSION);
+            out.writeVarint(strings.size());
+            for (String string : strings) {
+                byte[] utf8 = string.getBytes("UTF-8");
+                out.writeVarint(utf8.length);
+                out.writeBytes(utf8, utf8.length);
+            }
+            out.writeBytes(body.buf, body.length);
+            return out.toByteArray();
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException();
+        } finally {
+            body.length = 0;
+            stringIndices.clear();
+            strings.clear();
+            nodeIds.clear();
+            documentReferences.clear();
+            nodeCount = 0;
+        }
+    }
+
+    public void visit(RootNode node) {
+        start(ROOT, node);
+        writeChildren(node);
+        writeNodeList(node.getReferences());
+        writeNodeList(node.getAbbreviations());
+    }
+
+    public void visit(AbbreviationNode node) {
+        nodeIds.put(node, start(ABBREVIATION, node));
+        writeOptionalNode(node.getExpansion());
+        writeChildren(node);
+    }
+
+    public void visit(AutoLinkNode node) {
+        writeText(AUTO_LINK, node);
+    }
+
+    public void visit(BlockQuoteNode node) {
+        writeSuper(BLOCK_QUOTE, node);
+    }
+
+    public void visit(BulletListNode node) {
+        writeSuper(BULLET_LIST, node);
+    }
+
+    public void visit(CodeNode node) {
+        writeText(CODE, node);
+    }
+
+    public void visit(DefinitionListNode node) {
+        writeSuper(DEFINITION_LIST, node);
+    }
+
+    public void visit(DefinitionNode node) {
+        writeSuper(DEFINITION, node);
+    }
+
+    public void visit(DefinitionTermNode node) {
+        writeSuper(DEFINITION_TERM, node);
+    }
+
+    public void visit(ExpImageNode node) {
+        start(EXP_IMAGE, node);
+        writeString(node.title);
+        writeString(node.url);
+        writeChildren(node);
+    }
+
+    public void visit(ExpLinkNode node) {
+        start(EXP_LINK, node);
+        writeString(node.title);
+        writeString(node.url);
+        writeChildren(node);
+    }
+
+    public void visit(HeaderNode node) {
+        start(HEADER, node);
+        body.writeVarint(node.getLevel());
+        writeChildren(node);
+    }
+
+    public void visit(HtmlBlockNode node) {
+        writeText(HTML_BLOCK, node);
+    }
+
+    public void visit(InlineHtmlNode node) {
+        writeText(INLINE_HTML, node);
+    }
+
+    public void visit(ListItemNode node) {
+        writeSuper(LIST_ITEM, node);
+    }
+
+    public void visit(MailLinkNode node) {
+        writeText(MAIL_LINK, node);
+    }
+
+    public void visit(OrderedListNode node) {
+        writeSuper(ORDERED_LIST, node);
+    }
+
+    public void visit(ParaNode node) {
+        writeSuper(PARA, node);
+    }
+
+    public void visit(QuotedNode node) {
+        start(QUOTED, node);
+        body.writeVarint(node.getType().ordinal());
+        writeChildren(node);
+    }
+
+    public void visit(ReferenceNode node) {
+        nodeIds.put(node, start(REFERENCE, node));
+        writeString(node.getUrl());
+        writeString(node.getTitle());
+        writeString(node.getKey());
+        writeChildren(node);
+    }
+
+    public void visit(RefImageNode node) {
+        start(REF_IMAGE, node);
+        writeString(node.separatorSpace);
+        writeOptionalNode(node.referenceKey);
+        writeString(node.getKey());
+        writeReferenceBinding(node.getReference());
+        writeChildren(node);
+    }
+
+    public void visit(RefLinkNode node) {
+        start(REF_LINK, node);
+        writeString(node.separatorSpace);
+        writeOptionalNode(node.referenceKey);
+        writeString(node.getKey());
+        writeReferenceBinding(node.getReference());
+        writeChildren(node);
+    }
+
+    public void visit(SimpleNode node) {
+        start(SIMPLE, node);
+        body.writeVarint(node.getType().ordinal());
+    }
+
+    public void visit(SpecialTextNode node) {
+        writeText(SPECIAL_TEXT, node);
+    }
+
+    public void visit(StrikeNode node) {
+        writeSuper(STRIKE, node);
+    }
+
+    public void visit(StrongEmphSuperNode node) {
+        start(STRONG_EMPH, node);
+        writeString(node.getChars());
+        body.writeByte(node.isClosed() ? 1 : 0);
+        writeChildren(node);
+    }
+
+    public void visit(TableBodyNode node) {
+        writeSuper(TABLE_BODY, node);
+    }
+
+    public void visit(TableCaptionNode node) {
+        writeSuper(TABLE_CAPTION, node);
+    }
+
+    public void visit(TableCellNode node) {
+        start(TABLE_CELL, node);
+        body.writeVarint(node.getColSpan());
+        writeChildren(node);
+    }
+
+    public void visit(TableColumnNode node) {
+        start(TABLE_COLUMN, node);
+        body.writeVarint(node.getAlignment().ordinal());
+        writeChildren(node);
+    }
+
+    public void visit(TableHeaderNode node) {
+        writeSuper(TABLE_HEADER, node);
+    }
+
+    public void visit(TableNode node) {
+        start(TABLE, node);
+        body.writeVarint(node.getColumns().size());
+        for (TableColumnNode column : node.getColumns()) {
+            column.accept(this);
+        }
+        writeChildren(node);
+    }
+
+    public void visit(TableRowNode node) {
+        writeSuper(TABLE_ROW, node);
+    }
+
+    public void visit(VerbatimNode node) {
+        start(VERBATIM, node);
+        writeString(node.getText());
+        writeString(node.getType());
+    }
+
+    public void visit(WikiLinkNode node) {
+        writeText(WIKI_LINK, node);
+    }
+
+    public void visit(TextNode node) {
+        writeText(TEXT, node);
+    }
+
+    public void visit(SuperNode node) {
+        writeSuper(SUPER, node);
+    }
+
+    public void visit(Node node) {
+        throw new IllegalArgumentException("Cannot write custom node " + node);
+    }
+
+    // helpers
+
+    private int start(int tag, Node node) {
+        body.writeByte(tag);
+        body.writeVarint(node.getStartIndex());
+        body.writeVarint(zigZag(node.getEndIndex() - node.getStartIndex()));
+        return nodeCount++;
+    }
+
+    private void writeText(int tag, TextNode node) {
+        start(tag, node);
+        writeString(node.getText());
+    }
+
+    private void writeSuper(int tag, SuperNode node) {
+        start(tag, node);
+        writeChildren(node);
+    }
+
+    private void writeChildren(Node node) {
+        List<Node> children = node.getChildren();
+        body.writeVarint(children.size());
+        for (Node child : children) {
+            child.accept(this);
+        }
+    }
+
+    private void writeOptionalNode(Node node) {
+        if (node != null) {
+            body.writeByte(1);
+            node.accept(this);
+        } else body.writeByte(0);
+    }
+
+    // writes the ids of nodes already written, or the nodes themselves if they are not part of the tree
+    private void writeNodeList(List<? extends Node> nodes) {
+        body.writeVarint(nodes.size());
+        for (Node node : nodes) {
+            Integer id = nodeIds.get(node);
+            if (id != null) {
+                body.writeVarint(id + 1);
+            } else {
+                body.writeVarint(0);
+                node.accept(this);
+            }
+        }
+    }
+
+    // bound references are written as their position in the references list of the document root
+    private void writeReferenceBinding(ReferenceNode reference) {
+        Integer index = reference != null ? documentReferences.get(reference) : null;
+        body.writeVarint(index != null ? index + 1 : 0);
+    }
+
+    private void writeString(String string) {
+        if (string == null) {
+            body.writeVarint(0);
+            return;
+        }
+        Integer index = stringIndices.get(string);
+        if (index == null) {
+            strings.add(string);
+            index = strings.size();
+            stringIndices.put(string, index);
+        }
+        body.writeVarint(index);
+    }
+
+    private static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static class Bytes {
+        private byte[] buf = new byte[1024];
+        private int length;
+
+        void writeByte(int b) {
+            if (length == buf.length) grow(1);
+            buf[length++] = (byte) b;
+        }
+
+        void writeVarint(int value) {
+            if (length + 5 > buf.length) grow(5);
+            while ((value & ~0x7F) != 0) {
+                buf[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buf[length++] = (byte) value;
+        }
+
+        void writeBytes(byte[] bytes, int count) {
+            if (length + count > buf.length) grow(count);
+            System.arraycopy(bytes, 0, buf, length, count);
+            length += count;
+        }
+
+        byte[] toByteArray() {
+            byte[] result = new byte[length];
+            System.arraycopy(buf, 0, result, 0, length);
+            return result;
+        }
+
+        private void grow(int minExtra) {
+            byte[] newBuf = new byte[Math.max(buf.length * 2, length + minExtra)];
+            System.arraycopy(buf, 0, newBuf, 0, length);
+            buf = newBuf;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown;
+
+/**
+ * Allows stopping a parse from another thread, e.g. when the request it is running for has been aborted or its
+ * deadline has passed. The parser checks the token before each block and each inline element and aborts with a
+ * {@link ParsingCancelledException} at the first check after it has been cancelled.
+ * A token can be cancelled explicitly, expire after a timeout, or be bound to any other condition by overriding
+ * {@link #isCancelled()}. Tokens are thread-safe and can be shared by any number of parses.
+ */
+public class CancellationToken {
+
+    private final long deadline; // in System.nanoTime() terms, only relevant if expiring
+    private final boolean expiring;
+    private volatile boolean cancelled;
+
+    /**
+     * Creates a token which is only cancelled by {@link #cancel()}.
+     */
+    public CancellationToken() {
+        deadline = 0;
+        expiring = false;
+    }
+
+    /**
+     * Creates a token which cancels itself once the given time has passed, e.g. to propagate the deadline of a
+     * request.
+     *
+     * @param timeoutInMillis the time from now after which the token is cancelled
+     */
+    public CancellationToken(long timeoutInMillis) {
+        deadline = System.nanoTime() + timeoutInMillis * 1000000;
+        expiring = true;
+    }
+
+    /**
+     * Cancels all parses using this token.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return true if the parses using this token should stop
+     */
+    public boolean isCancelled() {
+        return cancelled || expiring && System.nanoTime() - deadline >= 0;
+    }
+}
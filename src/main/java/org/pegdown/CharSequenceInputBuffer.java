@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown;
+
+import org.parboiled.buffers.InputBuffer;
+import org.parboiled.support.Chars;
+import org.parboiled.support.IndexRange;
+import org.parboiled.support.Position;
+
+import java.util.Arrays;
+
+import static org.parboiled.common.Preconditions.checkArgNotNull;
+
+/**
+ * An InputBuffer reading directly from a CharSequence (like a String, StringBuilder or CharBuffer), which virtually
+ * appends the two newlines {@link PegDownProcessor#prepareSource(char[])} would add, so markdown can be parsed
+ * without copying it into a char array first.
+ * The CharSequence must not be modified while it is being parsed.
+ */
+public class CharSequenceInputBuffer implements InputBuffer {
+    private static final int SUFFIX_LENGTH = 2;
+
+    private final CharSequence chars;
+    private final int charsLength;
+    private final int length;
+    private int[] newlines;
+
+    public CharSequenceInputBuffer(CharSequence chars) {
+        checkArgNotNull(chars, "chars");
+        this.chars = chars;
+        this.charsLength = chars.length();
+        this.length = charsLength + SUFFIX_LENGTH;
+    }
+
+    /**
+     * @return the wrapped CharSequence
+     */
+    public CharSequence getChars() {
+        return chars;
+    }
+
+    /**
+     * @return the length of the input including the appended newlines
+     */
+    public int length() {
+        return length;
+    }
+
+    public char charAt(int index) {
+        if (0 <= index && index < charsLength) return chars.charAt(index);
+        return 0 <= index && index < length ? '\n' : Chars.EOI;
+    }
+
+    public boolean test(int index, char[] characters) {
+        int n = characters.length;
+        if (index < 0 || index > length - n) return false;
+        for (int i = 0; i < n; i++) {
+            if (charAt(index + i) != characters[i]) return false;
+        }
+        return true;
+    }
+
+    public String extract(int start, int end) {
+        if (start < 0) start = 0;
+        if (end > length) end = length;
+        if (start >= end) return "";
+        if (end <= charsLength) return chars.subSequence(start, end).toString();
+        StringBuilder sb = new StringBuilder(end - start);
+        if (start < charsLength) sb.append(chars, start, charsLength);
+        for (int i = Math.max(start, charsLength); i < end; i++) sb.append('\n');
+        return sb.toString();
+    }
+
+    public String extract(IndexRange range) {
+        return extract(range.start, range.end);
+    }
+
+    public Position getPosition(int index) {
+        buildNewlines();
+        int line = getLine0(index);
+        int column = index - (line > 0 ? newlines[line - 1] : -1);
+        return new Position(line + 1, column);
+    }
+
+    public int getOriginalIndex(int index) {
+        return index;
+    }
+
+    public String extractLine(int lineNumber) {
+        buildNewlines();
+        int start = lineNumber > 1 ? newlines[lineNumber - 2] + 1 : 0;
+        int end = lineNumber <= newlines.length ? newlines[lineNumber - 1] : length;
+        if (end > start && charAt(end - 1) == '\r') end--;
+        return extract(start, end);
+    }
+
+    public int getLineCount() {
+        buildNewlines();
+        return newlines.length + 1;
+    }
+
+    // the index of the line containing the given index, counting from zero
+    private int getLine0(int index) {
+        int line = Arrays.binarySearch(newlines, index);
+        return line >= 0 ? line : -(line + 1);
+    }
+
+    private void buildNewlines() {
+        if (newlines != null) return;
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            if (charAt(i) == '\n') count++;
+        }
+        newlines = new int[count];
+        count = 0;
+        for (int i = 0; i < length; i++) {
+            if (charAt(i) == '\n') newlines[count++] = i;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram of fixed size (less than 8 KB), which can be recorded into from any number of threads
+ * concurrently. Values are counted in log-linear buckets: every power of two is split into 16 linear sub-buckets,
+ * so percentiles are accurate to within 1/16 (6.25%) of the value across the whole range of long values.
+ * Queries work on immutable {@link Snapshot}s, which can be merged, e.g. to combine the histograms of several
+ * processors or time periods.
+ */
+public class LatencyHistogram {
+    static final int SUB_BUCKET_BITS = 4;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records the given value, negative values are recorded as zero.
+     *
+     * @param value the value, usually a duration in nanoseconds
+     */
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts.incrementAndGet(bucketIndex(value));
+        sum.addAndGet(value);
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) ;
+    }
+
+    /**
+     * @return a snapshot of the values recorded so far
+     */
+    public Snapshot snapshot() {
+        long[] snapshotCounts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) snapshotCounts[i] = counts.get(i);
+        return new Snapshot(snapshotCounts, sum.get(), max.get());
+    }
+
+    /**
+     * Takes a snapshot and resets the histogram, e.g. for periodic reporting. The buckets, the sum and the maximum
+     * are reset one after the other without a lock, so no recorded value is lost or counted twice: every count, sum
+     * and maximum contribution lands in either this or the next snapshot. A value recorded concurrently may however
+     * be counted in one snapshot and contribute to the sum (and maximum) of the other, so the mean and maximum of a
+     * snapshot taken under load are approximate, while the counts and percentiles are exact.
+     *
+     * @return a snapshot of the values recorded since the last reset
+     */
+    public Snapshot snapshotAndReset() {
+        long[] snapshotCounts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) snapshotCounts[i] = counts.getAndSet(i, 0);
+        return new Snapshot(snapshotCounts, sum.getAndSet(0), max.getAndSet(0));
+    }
+
+    /**
+     * Discards all recorded values.
+     */
+    public void reset() {
+        snapshotAndReset();
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    // the largest value counted in the given bucket
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        long mantissa = (index & (SUB_BUCKETS - 1)) + SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    /**
+     * An immutable view of the values recorded by a LatencyHistogram up to some point in time.
+     */
+    public static class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Snapshot(long[] counts, long sum, long max) {
+            long count = 0;
+            for (long c : counts) count += c;
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * @return the mean of all values, or 0 if no values have been recorded
+         */
+        public double getMean() {
+            return count == 0 ? 0.0 : (double) sum / count;
+        }
+
+        /**
+         * Returns the value below or at which the given fraction of all recorded values lie (within the precision of
+         * the histogram).
+         *
+         * @param fraction the fraction of values, e.g. 0.99 for the 99th percentile
+         * @return the percentile value, or 0 if no values have been recorded
+         */
+        public long getPercentile(double fraction) {
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(fraction * count));
+            for (int i = 0; i < counts.length; i++) {
+                rank -= counts[i];
+                if (rank <= 0) return Math.min(bucketUpperBound(i), max);
+            }
+            return max;
+        }
+
+        /**
+         * @param other another snapshot
+         * @return a new snapshot containing the values of both snapshots
+         */
+        public Snapshot merge(Snapshot other) {
+            long[] merged = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) merged[i] = counts[i] + other.counts[i];
+            return new Snapshot(merged, sum + other.sum, Math.max(max, other.max));
+        }
+
+        @Override
+        public String toString() {
+            return String.format("LatencyHistogram.Snapshot[count=%s, mean=%.0f, median=%s, p99=%s, p999=%s, max=%s]",
+                    count, getMean(), getPercentile(0.5), getPercentile(0.99), getPercentile(0.999), max);
+        }
+    }
+}
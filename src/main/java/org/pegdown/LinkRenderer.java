@@ -51,6 +51,20 @@ public class LinkRenderer {
         }
     }
 
+    /**
+     * Identifies the links rendered by this LinkRenderer in render cache keys (see {@link RenderCache}), which might
+     * be shared by all processors of an application: two LinkRenderers with the same identity must render every link
+     * identically.
+     * Since subclasses might carry configuration or per-request state, only a plain LinkRenderer has an identity by
+     * default. Subclasses whose output is cacheable must override this method and describe everything their output
+     * depends on, e.g. the class name followed by a tenant id. Null disables the caches for this LinkRenderer.
+     *
+     * @return the identity of this LinkRenderer, or null if its output must not be cached
+     */
+    public String getCacheIdentity() {
+        return getClass() == LinkRenderer.class ? LinkRenderer.class.getName() : null;
+    }
+
     public Rendering render(AutoLinkNode node) {
         return new Rendering(node.getText(), node.getText());
     }
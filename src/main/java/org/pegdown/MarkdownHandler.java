@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown;
+
+import org.pegdown.ast.Node;
+import org.pegdown.ast.TextNode;
+
+/**
+ * Receives the nodes of a markdown document as a stream of events in document order, as produced by
+ * {@link PegDownProcessor#parseMarkdown(char[], MarkdownHandler)}.
+ * The events of each top-level block are delivered as soon as the block has been parsed and the block is discarded
+ * afterwards, so the memory required for the AST is bounded by the largest block rather than the whole document.
+ * All nodes carry their source indices (see {@link Node#getStartIndex()} and {@link Node#getEndIndex()}).
+ *
+ * The document itself is reported as a RootNode, whose start event comes first and whose end event comes last.
+ * The RootNode never has children and only carries the references and abbreviations of the document in its end
+ * event. Likewise reference links and images only carry their reference if it has been
+ * defined before (in an earlier block).
+ */
+public interface MarkdownHandler {
+
+    /**
+     * Called for every node that is not a TextNode, before the events of its children.
+     *
+     * @param node the node
+     */
+    void startNode(Node node);
+
+    /**
+     * Called for every node that is not a TextNode, after the events of its children.
+     *
+     * @param node the node
+     */
+    void endNode(Node node);
+
+    /**
+     * Called for every node carrying text, i.e. for all TextNodes including their subclasses like CodeNode,
+     * VerbatimNode or HtmlBlockNode, instead of start and end events.
+     *
+     * @param node the text node
+     */
+    void text(TextNode node);
+}
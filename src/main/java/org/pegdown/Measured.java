@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown;
+
+/**
+ * The result of processing a document together with what it cost to produce.
+ *
+ * @param <T> the type of the result
+ */
+public class Measured<T> {
+    private final T value;
+    private final ProcessingCost cost;
+
+    public Measured(T value, ProcessingCost cost) {
+        this.value = value;
+        this.cost = cost;
+    }
+
+    /**
+     * @return the result, null if the parsing timed out
+     */
+    public T getValue() {
+        return value;
+    }
+
+    public ProcessingCost getCost() {
+        return cost;
+    }
+
+    @Override
+    public String toString() {
+        return "Measured[" + cost + ']';
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown;
+
+import org.parboiled.MatchHandler;
+import org.parboiled.MatcherContext;
+import org.parboiled.Rule;
+import org.parboiled.buffers.InputBuffer;
+import org.parboiled.matchers.Matcher;
+import org.parboiled.matchers.ProxyMatcher;
+import org.parboiled.matchers.VarFramingMatcher;
+import org.parboiled.parserunners.BasicParseRunner;
+import org.parboiled.parserunners.ReportingParseRunner;
+import org.parboiled.support.MatcherPosition;
+import org.parboiled.support.ParsingResult;
+
+import java.lang.reflect.Field;
+import java.util.AbstractSet;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * The ReportingParseRunner used by pegdown by default.
+ *
+ * The mismatch memoization of parboiled 1.1.6 (used by all rules annotated with @MemoMismatches) is broken in two
+ * ways: a mismatch is recorded at the input index where the rule failed rather than where it started, and
+ * positions are compared with a reference comparison of their boxed index, so that the memo only ever hits below
+ * index 128. On longer inputs the grammar therefore effectively runs without memoization, which makes inputs like
+ * long runs of unclosed brackets, quotes or nested HTML tags take exponential time.
+ * This runner switches off parboiled's memo and memoizes the mismatches of these rules in its MatchHandler instead.
+ */
+public class MemoMismatchesParseRunner<V> extends ReportingParseRunner<V> {
+
+    private static final Field MEMOIZED_MISMATCHES;
+
+    static {
+        Field field;
+        try {
+            field = MatcherContext.class.getDeclaredField("memoizedMismatches");
+            field.setAccessible(true);
+        } catch (Exception e) {
+            field = null; // we'll have to live with parboiled's memo running in addition to ours
+        }
+        MEMOIZED_MISMATCHES = field;
+    }
+
+    public MemoMismatchesParseRunner(Rule rule) {
+        super(rule);
+    }
+
+    @Override
+    protected ParsingResult<V> runBasicMatch(InputBuffer inputBuffer) {
+        return createBasicRunner(getRootMatcher())
+                .withParseErrors(getParseErrors())
+                .withValueStack(getValueStack())
+                .run(inputBuffer);
+    }
+
+    /**
+     * Creates the runner for the actual parsing run, override to instrument the matching.
+     */
+    protected BasicParseRunner<V> createBasicRunner(Rule rule) {
+        return new Basic<V>(rule);
+    }
+
+    /**
+     * A BasicParseRunner with working mismatch memoization. Subclasses overriding {@link #match(MatcherContext)}
+     * (e.g. for counting rule invocations) must delegate to this implementation.
+     */
+    public static class Basic<V> extends BasicParseRunner<V> {
+        private final Map<Matcher, BitSet> mismatches = new IdentityHashMap<Matcher, BitSet>();
+
+        public Basic(Rule rule) {
+            super(rule);
+        }
+
+        @Override
+        protected MatcherContext<V> createRootContext(InputBuffer inputBuffer, MatchHandler matchHandler,
+                                                      boolean fastStringMatching) {
+            mismatches.clear();
+            MatcherContext<V> context = super.createRootContext(inputBuffer, matchHandler, fastStringMatching);
+            if (MEMOIZED_MISMATCHES != null) {
+                try {
+                    MEMOIZED_MISMATCHES.set(context, NoMemo.INSTANCE); // shared by all sub contexts
+                } catch (IllegalAccessException e) {
+                    // keep parboiled's memo
+                }
+            }
+            return context;
+        }
+
+        @Override
+        public boolean match(MatcherContext<?> context) {
+            Matcher matcher = context.getMatcher();
+            return matcher.areMismatchesMemoed() ? matchMemoized(matcher, context) : matcher.match(context);
+        }
+
+        private boolean matchMemoized(Matcher matcher, MatcherContext<?> context) {
+            Matcher key = VarFramingMatcher.unwrap(ProxyMatcher.unwrap(matcher));
+            int startIndex = context.getCurrentIndex();
+            BitSet bits = mismatches.get(key);
+            if (bits != null && bits.get(startIndex)) return false;
+            if (matcher.match(context)) return true;
+            bits = mismatches.get(key); // the rule might have been run (and memoized) recursively in the meantime
+            if (bits == null) {
+                bits = new BitSet();
+                mismatches.put(key, bits);
+            }
+            bits.set(startIndex);
+            return false;
+        }
+    }
+
+    /**
+     * Replaces parboiled's mismatch memo with one that never memoizes anything.
+     */
+    static class NoMemo extends AbstractSet<MatcherPosition> {
+        static final NoMemo INSTANCE = new NoMemo();
+
+        @Override
+        public boolean contains(Object o) {
+            return false;
+        }
+
+        @Override
+        public boolean add(MatcherPosition position) {
+            return false;
+        }
+
+        @Override
+        public int size() {
+            return 0;
+        }
+
+        @Override
+        public Iterator<MatcherPosition> iterator() {
+            return new Iterator<MatcherPosition>() {
+                public boolean hasNext() { return false; }
+                public MatcherPosition next() { throw new NoSuchElementException(); }
+                public void remove() { throw new UnsupportedOperationException(); }
+            };
+        }
+    }
+}
@@ -22,10 +22,13 @@ import org.parboiled.BaseParser;
 import org.parboiled.Context;
 import org.parboiled.Rule;
 import org.parboiled.annotations.*;
+import org.parboiled.buffers.DefaultInputBuffer;
+import org.parboiled.buffers.InputBuffer;
 import org.parboiled.common.ArrayBuilder;
 import org.parboiled.common.ImmutableList;
+import org.parboiled.errors.ParserRuntimeException;
 import org.parboiled.parserunners.ParseRunner;
-import org.parboiled.parserunners.ReportingParseRunner;
+import org.parboiled.support.Chars;
 import org.parboiled.support.ParsingResult;
 import org.parboiled.support.StringBuilderVar;
 import org.parboiled.support.StringVar;
@@ -36,7 +39,10 @@ import org.pegdown.plugins.PegDownPlugins;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 import static org.parboiled.errors.ErrorUtils.printParseErrors;
 import static org.parboiled.common.StringUtils.repeat;
@@ -57,7 +63,7 @@ public class Parser extends BaseParser<Object> implements Extensions {
     public static ParseRunnerProvider DefaultParseRunnerProvider =
             new Parser.ParseRunnerProvider() {
                 public ParseRunner<Node> get(Rule rule) {
-                    return new ReportingParseRunner<Node>(rule);
+                    return new MemoMismatchesParseRunner<Node>(rule);
                 }
             };
 
@@ -67,7 +73,16 @@ public class Parser extends BaseParser<Object> implements Extensions {
     protected final PegDownPlugins plugins;
     final List<AbbreviationNode> abbreviations = new ArrayList<AbbreviationNode>();
     final List<ReferenceNode> references = new ArrayList<ReferenceNode>();
+    final List<SuperNode> referenceLinks = new ArrayList<SuperNode>();
+    final Map<InputBuffer, Map<String, Integer>> closingTagIndices = new IdentityHashMap<InputBuffer, Map<String, Integer>>();
+    MarkdownHandler markdownHandler;
+    RuntimeException markdownHandlerFailure;
+    final Map<String, ReferenceNode> streamedReferenceIndex = new HashMap<String, ReferenceNode>();
+    int indexedReferenceCount;
     long parsingStartTimeStamp = 0L;
+    CancellationToken cancellationToken; // the token of the current parse, if any
+    ProcessingListener processingListener = ProcessingListener.NONE;
+    int parseDepth = 0;
 
     public Parser(Integer options, Long maxParsingTimeInMillis, ParseRunnerProvider parseRunnerProvider, PegDownPlugins plugins) {
         this.options = options;
@@ -81,14 +96,152 @@ public class Parser extends BaseParser<Object> implements Extensions {
     }
 
     public RootNode parse(char[] source) {
+        return parse(new DefaultInputBuffer(source), source.length);
+    }
+
+    /**
+     * Parses the markdown source in the given buffer, which must end with two newlines like the result of
+     * {@link PegDownProcessor#prepareSource(char[])} (see {@link CharSequenceInputBuffer}).
+     *
+     * @param input the markdown source
+     * @param inputLength the length of the source
+     * @return the AST root
+     */
+    public RootNode parse(InputBuffer input, int inputLength) {
+        processingListener.parseStarted(0, inputLength);
+        long start = System.nanoTime();
+        try {
+            RootNode root = parseInternal(input, inputLength, Root());
+            root.setAbbreviations(ImmutableList.copyOf(abbreviations));
+            root.setReferences(ImmutableList.copyOf(references));
+            bindReferenceLinks(root);
+            processingListener.parsed(0, inputLength, System.nanoTime() - start);
+            return root;
+        } finally {
+            abbreviations.clear();
+            references.clear();
+            referenceLinks.clear();
+            closingTagIndices.clear();
+        }
+    }
+
+    /**
+     * Parses the given source as a sequence of inline elements, without recognizing any blocks (so a line starting
+     * with a '#' is not a heading) and without resolving references and abbreviations.
+     * The inlines of every paragraph (i.e. the text between blank lines) become a SuperNode child of the returned
+     * root, see {@link ToHtmlSerializer#inlinesToHtml(RootNode)}.
+     *
+     * @param source the markdown source, which must end with two newlines like the result of
+     * {@link PegDownProcessor#prepareSource(char[])}
+     * @return the AST root
+     */
+    public RootNode parseInlines(char[] source) {
+        return parseInlines(new DefaultInputBuffer(source), source.length);
+    }
+
+    /**
+     * Parses the markdown source in the given buffer as a sequence of inline elements (see
+     * {@link #parseInlines(char[])}).
+     *
+     * @param input the markdown source
+     * @param inputLength the length of the source
+     * @return the AST root
+     */
+    public RootNode parseInlines(InputBuffer input, int inputLength) {
+        processingListener.parseStarted(0, inputLength);
+        long start = System.nanoTime();
+        try {
+            RootNode root = parseInternal(input, inputLength, InlineRoot());
+            processingListener.parsed(0, inputLength, System.nanoTime() - start);
+            return root;
+        } finally {
+            abbreviations.clear();
+            references.clear();
+            referenceLinks.clear();
+            closingTagIndices.clear();
+        }
+    }
+
+    /**
+     * Parses the given source and reports its nodes to the given handler, discarding every top-level block as soon
+     * as it has been reported.
+     *
+     * @param source the markdown source
+     * @param handler the handler to report the nodes to
+     */
+    public void parse(char[] source, MarkdownHandler handler) {
+        parse(new DefaultInputBuffer(source), source.length, handler);
+    }
+
+    /**
+     * Parses the markdown source in the given buffer and reports its nodes to the given handler, discarding every
+     * top-level block as soon as it has been reported. The buffer must end with two newlines like the result of
+     * {@link PegDownProcessor#prepareSource(char[])}.
+     *
+     * @param input the markdown source
+     * @param inputLength the length of the source
+     * @param handler the handler to report the nodes to
+     */
+    public void parse(InputBuffer input, int inputLength, MarkdownHandler handler) {
+        processingListener.parseStarted(0, inputLength);
+        long start = System.nanoTime();
+        markdownHandler = handler;
         try {
-            RootNode root = parseInternal(source);
+            RootNode root;
+            try {
+                root = parseInternal(input, inputLength, StreamingRoot());
+            } catch (ParserRuntimeException e) {
+                // parboiled wraps the exceptions thrown by the handler
+                if (markdownHandlerFailure != null) throw markdownHandlerFailure;
+                throw e;
+            }
+            root.setAbbreviations(ImmutableList.copyOf(abbreviations));
+            root.setReferences(ImmutableList.copyOf(references));
+            processingListener.parsed(0, inputLength, System.nanoTime() - start);
+            handler.endNode(root);
+        } finally {
+            markdownHandler = null;
+            markdownHandlerFailure = null;
+            streamedReferenceIndex.clear();
+            indexedReferenceCount = 0;
+            abbreviations.clear();
+            references.clear();
+            referenceLinks.clear();
+            closingTagIndices.clear();
+        }
+    }
+
+    /**
+     * Quickly collects the references and abbreviations defined in the given source without parsing it completely,
+     * by only looking for definitions at the start of blocks. Fenced code and HTML blocks are skipped, so lines inside
+     * them are never taken for definitions, but definitions nested in lists or blockquotes are not found.
+     *
+     * @param source the markdown source
+     * @return a RootNode without children, carrying the found references and abbreviations
+     */
+    public RootNode scanDefinitions(char[] source) {
+        return scanDefinitions(new DefaultInputBuffer(source), source.length);
+    }
+
+    /**
+     * Quickly collects the references and abbreviations defined in the markdown source in the given buffer.
+     *
+     * @param input the markdown source
+     * @param inputLength the length of the source
+     * @return a RootNode without children, carrying the found references and abbreviations
+     * @see #scanDefinitions(char[])
+     */
+    public RootNode scanDefinitions(InputBuffer input, int inputLength) {
+        try {
+            RootNode root = parseInternal(input, inputLength, DefinitionsScan());
             root.setAbbreviations(ImmutableList.copyOf(abbreviations));
             root.setReferences(ImmutableList.copyOf(references));
             return root;
         } finally {
             abbreviations.clear();
             references.clear();
+            referenceLinks.clear();
+            closingTagIndices.clear();
         }
     }
 
@@ -101,8 +254,87 @@ public class Parser extends BaseParser<Object> implements Extensions {
         );
     }
 
+    // the root for inline-only parses, which skips all block rules
+    public Rule InlineRoot() {
+        return NodeSequence(
+                push(new RootNode()),
+                ZeroOrMore(BlankLine()),
+                ZeroOrMore(Sp(), Inlines(), addAsChild(), ZeroOrMore(BlankLine()))
+        );
+    }
+
+    // the root for streaming parses, which hands every block to the markdownHandler instead of adding it
+    public Rule StreamingRoot() {
+        return NodeSequence(
+                push(new RootNode()),
+                startDocument(),
+                ZeroOrMore(Block(), emitBlock())
+        );
+    }
+
+    // skips all lines besides the definitions following blank lines or other definitions, as well as the fenced code
+    // and HTML blocks starting there, whose lines are not definitions even if they look like ones
+    public Rule DefinitionsScan() {
+        return NodeSequence(
+                push(new RootNode()),
+                ZeroOrMore(
+                        TestNot(EOI),
+                        ZeroOrMore(BlankLine()),
+                        ZeroOrMore(ReferenceOrAbbreviation(), drop()),
+                        FirstOf(
+                                Sequence(ext(FENCED_CODE_BLOCKS) ? FirstOf(FencedCodeBlock(), HtmlBlock()) : HtmlBlock(),
+                                        drop()),
+                                ZeroOrMore(TestNot(BlankLine()), ZeroOrMore(NotNewline(), ANY), Newline())
+                        )
+                )
+        );
+    }
+
+    public Rule ReferenceOrAbbreviation() {
+        return ext(ABBREVIATIONS) ? FirstOf(Reference(), Abbreviation()) : Reference();
+    }
+
+    boolean startDocument() {
+        try {
+            markdownHandler.startNode((Node) peek());
+        } catch (RuntimeException e) {
+            throw markdownHandlerFailure = e;
+        }
+        return true;
+    }
+
+    boolean emitBlock() {
+        // the reference links of the block can only be bound to references defined so far
+        for (int i = indexedReferenceCount; i < references.size(); i++) {
+            ReferenceNode reference = references.get(i);
+            if (reference.getKey() != null) streamedReferenceIndex.put(reference.getKey(), reference);
+        }
+        indexedReferenceCount = references.size();
+        bindReferenceLinks(streamedReferenceIndex);
+        referenceLinks.clear();
+        try {
+            emit((Node) pop(), markdownHandler);
+        } catch (RuntimeException e) {
+            throw markdownHandlerFailure = e;
+        }
+        return true;
+    }
+
+    static void emit(Node node, MarkdownHandler handler) {
+        if (node instanceof TextNode) {
+            handler.text((TextNode) node);
+            return;
+        }
+        handler.startNode(node);
+        for (Node child : node.getChildren()) {
+            emit(child, handler);
+        }
+        handler.endNode(node);
+    }
+
     public Rule Block() {
         return Sequence(
+                checkForParsingTimeout(),
                 ZeroOrMore(BlankLine()),
                 FirstOf(new ArrayBuilder<Rule>()
                         .add(plugins.getBlockPluginRules())
@@ -499,12 +731,16 @@ public class Parser extends BaseParser<Object> implements Extensions {
     }
 
     @Cached
+    @MemoMismatches
     public Rule HtmlTagBlock(StringVar tagName) {
         return Sequence(
                 HtmlBlockOpen(tagName),
+                closingTagFollows(tagName.get()),
                 ZeroOrMore(
                         FirstOf(
-                                HtmlTagBlock(tagName),
+                                // the Test keeps the mismatch memo sound: HtmlTagBlock is only ever run on an opening
+                                // tag of its own tagName, so its outcome only depends on the input position
+                                Sequence(Test(HtmlBlockOpen(tagName)), HtmlTagBlock(tagName)),
                                 Sequence(TestNot(HtmlBlockClose(tagName)), ANY)
                         )
                 ),
@@ -540,6 +776,39 @@ public class Parser extends BaseParser<Object> implements Extensions {
         return Arrays.binarySearch(HTML_TAGS, string) >= 0;
     }
 
+    // without this check every unclosed block tag (like <hr>) would scan the rest of the input for its closing tag,
+    // which makes long documents containing many of them take quadratic time
+    public boolean closingTagFollows(String tagName) {
+        InputBuffer inputBuffer = getContext().getInputBuffer();
+        Map<String, Integer> indices = closingTagIndices.get(inputBuffer);
+        if (indices == null) {
+            indices = indexClosingTags(inputBuffer);
+            closingTagIndices.put(inputBuffer, indices);
+        }
+        Integer index = indices.get(tagName);
+        return index != null && index >= getContext().getCurrentIndex();
+    }
+
+    // maps the names of all closing tags in the input to the index of their last occurrence,
+    // the whitespace allowed is a superset of what HtmlBlockClose accepts
+    protected static Map<String, Integer> indexClosingTags(InputBuffer inputBuffer) {
+        Map<String, Integer> indices = new HashMap<String, Integer>();
+        for (int i = 0; inputBuffer.charAt(i) != Chars.EOI; i++) {
+            if (inputBuffer.charAt(i) != '<') continue;
+            int j = i + 1;
+            while (Character.isWhitespace(inputBuffer.charAt(j))) j++;
+            if (inputBuffer.charAt(j) != '/') continue;
+            int start = ++j;
+            while (isAsciiAlphanumeric(inputBuffer.charAt(j))) j++;
+            if (j > start) indices.put(inputBuffer.extract(start, j), i);
+        }
+        return indices;
+    }
+
+    private static boolean isAsciiAlphanumeric(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9';
+    }
+
     protected static final String[] HTML_TAGS = new String[] {
             "address", "blockquote", "center", "dd", "dir", "div", "dl", "dt", "fieldset", "form", "frameset", "h1",
             "h2", "h3", "h4", "h5", "h6", "hr", "isindex", "li", "menu", "noframes", "noscript", "ol", "p", "pre",
@@ -888,7 +1157,8 @@ public class Parser extends BaseParser<Object> implements Extensions {
                 push(image ?
                   new RefImageNode((SuperNode)popAsNode(), popAsString(), popAsNode()) :
                   new RefLinkNode((SuperNode)popAsNode(), popAsString(), popAsNode())
-                )
+                ),
+                setReferenceLinkKey((SuperNode) peek())
         );
     }
 
@@ -972,8 +1242,9 @@ public class Parser extends BaseParser<Object> implements Extensions {
 
     //************* REFERENCE ****************
 
+    @MemoMismatches
     public Rule Label() {
-        return Sequence(
+        return NodeSequence(
                 '[',
                 push(new SuperNode()),
                 OneOrMore(TestNot(']'), NonAutoLinkInline(), addAsChild()),
@@ -985,6 +1256,7 @@ public class Parser extends BaseParser<Object> implements Extensions {
         Var<ReferenceNode> ref = new Var<ReferenceNode>();
         return NodeSequence(
                 NonindentSpace(), Label(), push(ref.setAndGet(new ReferenceNode(popAsNode()))),
+                ref.get().setKey(referenceKey(ref.get().getChildren().get(0))),
                 ':', Spn1(), RefSrc(ref),
                 Sp(), Optional(RefTitle(ref)),
                 Sp(), Newline(),
@@ -1017,6 +1289,103 @@ public class Parser extends BaseParser<Object> implements Extensions {
         );
     }
 
+    //************* REFERENCE ACTIONS ****************
+
+    boolean setReferenceLinkKey(SuperNode refLink) {
+        referenceLinks.add(refLink);
+        if (refLink instanceof RefImageNode) {
+            RefImageNode node = (RefImageNode) refLink;
+            return node.setKey(referenceKey(node.referenceKey != null ? node.referenceKey : node.getChildren().get(0)));
+        } else {
+            RefLinkNode node = (RefLinkNode) refLink;
+            return node.setKey(referenceKey(node.referenceKey != null ? node.referenceKey : node.getChildren().get(0)));
+        }
+    }
+
+    // determines the key of the given label node from its inline elements, so that labels match if they render to
+    // the same HTML (like "foo\_bar" and "foo_bar", "&amp;" and "&" or "*x*" and "_x_") without rendering them;
+    // hard line breaks count as whitespace
+    String referenceKey(Node label) {
+        StringBuilder sb = new StringBuilder();
+        appendReferenceKey(label, sb);
+        return normalizeReferenceKey(sb.toString());
+    }
+
+    private void appendReferenceKey(Node node, StringBuilder sb) {
+        if (node instanceof SpecialTextNode) {
+            FastEncoder.encode(((SpecialTextNode) node).getText(), sb);
+        } else if (node instanceof CodeNode) {
+            sb.append("<code>");
+            FastEncoder.encode(((CodeNode) node).getText(), sb);
+            sb.append("</code>");
+        } else if (node.getClass() == TextNode.class || node instanceof InlineHtmlNode) {
+            sb.append(((TextNode) node).getText());
+        } else if (node instanceof StrongEmphSuperNode) {
+            StrongEmphSuperNode emph = (StrongEmphSuperNode) node;
+            String tag = emph.isStrong() ? "strong" : "em";
+            if (emph.isClosed()) sb.append('<').append(tag).append('>');
+            else sb.append(emph.getChars());
+            appendReferenceKeys(emph.getChildren(), sb);
+            if (emph.isClosed()) sb.append("</").append(tag).append('>');
+        } else if (node instanceof SimpleNode) {
+            switch (((SimpleNode) node).getType()) {
+                case Apostrophe: sb.append("&rsquo;"); break;
+                case Ellipsis: sb.append("&hellip;"); break;
+                case Emdash: sb.append("&mdash;"); break;
+                case Endash: sb.append("&ndash;"); break;
+                case Nbsp: sb.append("&nbsp;"); break;
+                default: sb.append(' ');
+            }
+        } else if (node.getClass() == SuperNode.class) {
+            appendReferenceKeys(node.getChildren(), sb);
+        } else { // any other inline element is identified by its source text
+            sb.append(getContext().getInputBuffer().extract(node.getStartIndex(), node.getEndIndex()));
+        }
+    }
+
+    private void appendReferenceKeys(List<Node> nodes, StringBuilder sb) {
+        for (Node node : nodes) {
+            appendReferenceKey(node, sb);
+        }
+    }
+
+    /**
+     * Normalizes the key text of a reference label (see {@link ReferenceNode#getKey()}) into a key for matching
+     * links against reference definitions. The default implementation ignores whitespace and case.
+     */
+    public String normalizeReferenceKey(String label) {
+        StringBuilder sb = new StringBuilder(label.length());
+        for (int i = 0; i < label.length(); i++) {
+            char c = label.charAt(i);
+            switch (c) {
+                case ' ':
+                case '\n':
+                case '\r':
+                case '\t':
+                    continue;
+            }
+            sb.append(Character.toLowerCase(c));
+        }
+        return sb.toString();
+    }
+
+    void bindReferenceLinks(RootNode root) {
+        bindReferenceLinks(root.getReferenceIndex());
+    }
+
+    void bindReferenceLinks(Map<String, ReferenceNode> referenceIndex) {
+        if (referenceIndex.isEmpty()) return;
+        for (SuperNode refLink : referenceLinks) {
+            if (refLink instanceof RefImageNode) {
+                RefImageNode node = (RefImageNode) refLink;
+                node.setReference(referenceIndex.get(node.getKey()));
+            } else {
+                RefLinkNode node = (RefLinkNode) refLink;
+                node.setReference(referenceIndex.get(node.getKey()));
+            }
+        }
+    }
+
     //************* CODE ****************
 
     public Rule Code() {
@@ -1353,6 +1722,7 @@ public class Parser extends BaseParser<Object> implements Extensions {
 
     //************* QUOTES ****************
 
+    @MemoMismatches
     public Rule SingleQuoted() {
         return NodeSequence(
                 !Character.isLetter(getContext().getInputBuffer().charAt(getContext().getCurrentIndex() - 1)),
@@ -1367,6 +1737,7 @@ public class Parser extends BaseParser<Object> implements Extensions {
         return Sequence('\'', TestNot(Alphanumeric()));
     }
 
+    @MemoMismatches
     public Rule DoubleQuoted() {
         return NodeSequence(
                 '"',
@@ -1376,6 +1747,7 @@ public class Parser extends BaseParser<Object> implements Extensions {
         );
     }
 
+    @MemoMismatches
     public Rule DoubleAngleQuoted() {
         return NodeSequence(
                 "<<",
@@ -1479,7 +1851,27 @@ public class Parser extends BaseParser<Object> implements Extensions {
     }
 
     public RootNode parseInternal(char[] source) {
-        ParsingResult<Node> result = parseToParsingResult(source);
+        return parseInternal(source, Root());
+    }
+
+    RootNode parseInternal(char[] source, Rule root) {
+        return parseInternal(new DefaultInputBuffer(source), source.length, root);
+    }
+
+    RootNode parseInternal(InputBuffer input, int inputLength, Rule root) {
+        int depth = parseDepth++;
+        if (depth > 0) processingListener.parseStarted(depth, inputLength);
+        long start = System.nanoTime();
+        ParsingResult<Node> result;
+        try {
+            result = parseToParsingResult(input, root);
+        } catch (ParserRuntimeException e) {
+            // parboiled wraps all exceptions thrown by actions, including our timeout
+            if (e.getCause() instanceof ParsingTimeoutException) throw (ParsingTimeoutException) e.getCause();
+            throw e;
+        } finally {
+            parseDepth--;
+        }
         if (result.hasErrors()) {
             throw new RuntimeException("Internal error during markdown parsing:\n--- ParseErrors ---\n" +
                     printParseErrors(result)/* +
@@ -1487,17 +1879,24 @@ public class Parser extends BaseParser<Object> implements Extensions {
                     printNodeTree(result)*/
             );
         }
+        if (depth > 0) processingListener.parsed(depth, inputLength, System.nanoTime() - start);
         return (RootNode) result.resultValue;
     }
     
     ParsingResult<Node> parseToParsingResult(char[] source) {
+        return parseToParsingResult(new DefaultInputBuffer(source), Root());
+    }
+
+    ParsingResult<Node> parseToParsingResult(InputBuffer input, Rule root) {
         parsingStartTimeStamp = System.currentTimeMillis();
-        return parseRunnerProvider.get(Root()).run(source);
+        return parseRunnerProvider.get(root).run(input);
     }
 
     protected boolean checkForParsingTimeout() {
         if (System.currentTimeMillis() - parsingStartTimeStamp > maxParsingTimeInMillis)
             throw new ParsingTimeoutException();
+        if (cancellationToken != null && cancellationToken.isCancelled())
+            throw new ParsingCancelledException();
         return true;
     }
 
@@ -0,0 +1,26 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown;
+
+/**
+ * Thrown by the Parser when the rendering it is running for has been cancelled. Since it is a
+ * ParsingTimeoutException, the processing methods treat a cancellation like a timeout (and return null), except that
+ * it is not reported to the ProcessingListener.
+ */
+public class ParsingCancelledException extends ParsingTimeoutException {}
@@ -18,11 +18,30 @@
 
 package org.pegdown;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
 
 import org.parboiled.Parboiled;
+import org.parboiled.buffers.DefaultInputBuffer;
+import org.parboiled.buffers.InputBuffer;
+import org.pegdown.ast.Node;
 import org.pegdown.ast.RootNode;
+import org.pegdown.ast.TextNode;
 import org.pegdown.plugins.PegDownPlugins;
 
 /**
@@ -37,6 +56,12 @@ public class PegDownProcessor {
     public static final long DEFAULT_MAX_PARSING_TIME = 2000;
 
     public final Parser parser;
+    public final RenderCache renderCache;
+    public final RenderCache blockCache;
+    public final ProcessingListener listener;
+    private final boolean prepareSourceOverridden;
+    // whether a subclass customizes the char[] rendering, which all other overloads must then go through
+    private final boolean charArrayPathOverridden;
 
     /**
      * Creates a new processor instance without any enabled extensions and the default parsing timeout.
@@ -98,7 +123,66 @@ public class PegDownProcessor {
      * @param parser the parser instance to use
      */
     public PegDownProcessor(Parser parser) {
+        this(parser, null);
+    }
+
+    /**
+     * Creates a new processor instance using the given Parser and serving markdownToHtml calls from the given cache.
+     * Note that LinkRenderers are identified by their {@link LinkRenderer#getCacheIdentity()}, plugins by their
+     * {@link PegDownPlugins#getCacheIdentity()} and VerbatimSerializers by their class when building cache keys, so
+     * instances of the same VerbatimSerializer class must always render identical output. Without an identity of the
+     * LinkRenderer or the plugins the cache is not used.
+     *
+     * @param parser the parser instance to use
+     * @param renderCache the cache to use, or null for no caching
+     */
+    public PegDownProcessor(Parser parser, RenderCache renderCache) {
+        this(parser, renderCache, null);
+    }
+
+    /**
+     * Creates a new processor instance using the given Parser and caches.
+     * The block cache holds the HTML of individual top-level blocks, which is reused across documents containing
+     * the same blocks. Both caches may be the same RenderCache instance.
+     *
+     * @param parser the parser instance to use
+     * @param renderCache the cache for complete markdownToHtml results, or null for no caching
+     * @param blockCache the cache for the HTML of top-level blocks, or null for no caching
+     */
+    public PegDownProcessor(Parser parser, RenderCache renderCache, RenderCache blockCache) {
+        this(parser, renderCache, blockCache, ProcessingListener.NONE);
+    }
+
+    /**
+     * Creates a new processor instance using the given Parser and caches, which reports the timings and sizes of
+     * all processing phases to the given listener.
+     * Since the listener is installed on the parser, the parser should not be shared with other processors.
+     *
+     * @param parser the parser instance to use
+     * @param renderCache the cache for complete markdownToHtml results, or null for no caching
+     * @param blockCache the cache for the HTML of top-level blocks, or null for no caching
+     * @param listener the listener to notify, ProcessingListener.NONE for none
+     */
+    public PegDownProcessor(Parser parser, RenderCache renderCache, RenderCache blockCache,
+                            ProcessingListener listener) {
         this.parser = parser;
+        this.renderCache = renderCache;
+        this.blockCache = blockCache;
+        this.listener = listener;
+        parser.processingListener = listener;
+        prepareSourceOverridden = overrides("prepareSource", char[].class);
+        charArrayPathOverridden = prepareSourceOverridden || overrides("parseMarkdown", char[].class) ||
+                overrides("markdownToHtml", char[].class) ||
+                overrides("markdownToHtml", char[].class, LinkRenderer.class) ||
+                overrides("markdownToHtml", char[].class, LinkRenderer.class, Map.class);
+    }
+
+    private boolean overrides(String methodName, Class<?>... parameterTypes) {
+        try {
+            return getClass().getMethod(methodName, parameterTypes).getDeclaringClass() != PegDownProcessor.class;
+        } catch (NoSuchMethodException e) {
+            return true;
+        }
     }
 
     /**
@@ -109,7 +193,8 @@ public class PegDownProcessor {
      * @return the HTML
      */
     public String markdownToHtml(String markdownSource) {
-        return markdownToHtml(markdownSource.toCharArray());
+        return charArrayPathOverridden ? markdownToHtml(markdownSource.toCharArray())
+                : markdownToHtml((CharSequence) markdownSource);
     }
 
     /**
@@ -121,13 +206,140 @@ public class PegDownProcessor {
      * @return the HTML
      */
     public String markdownToHtml(String markdownSource, LinkRenderer linkRenderer) {
-        return markdownToHtml(markdownSource.toCharArray(), linkRenderer);
+        return charArrayPathOverridden ? markdownToHtml(markdownSource.toCharArray(), linkRenderer)
+                : markdownToHtml(markdownSource, linkRenderer, Collections.<String, VerbatimSerializer>emptyMap());
     }
 
 	public String markdownToHtml(String markdownSource, LinkRenderer linkRenderer, Map<String, VerbatimSerializer> verbatimSerializerMap) {
-		return markdownToHtml(markdownSource.toCharArray(), linkRenderer, verbatimSerializerMap);
+		return charArrayPathOverridden ? markdownToHtml(markdownSource.toCharArray(), linkRenderer, verbatimSerializerMap)
+                : markdownToHtml((CharSequence) markdownSource, linkRenderer, verbatimSerializerMap);
 	}
 
+    /**
+     * Converts the given markdown source to HTML.
+     * If the input cannot be parsed within the configured parsing timeout the method returns null.
+     *
+     * @param markdownSource the markdown source to convert, e.g. a StringBuilder or CharBuffer
+     * @return the HTML
+     */
+    public String markdownToHtml(CharSequence markdownSource) {
+        if (charArrayPathOverridden) return markdownToHtml(toCharArray(markdownSource));
+        return markdownToHtml(markdownSource, new LinkRenderer(), Collections.<String, VerbatimSerializer>emptyMap());
+    }
+
+    /**
+     * Converts the given markdown source to HTML.
+     * Unless a cache is used or the char[] based rendering is overridden (i.e. {@link #prepareSource(char[])},
+     * {@link #parseMarkdown(char[])} or one of the char[] markdownToHtml methods), the source is parsed directly
+     * (with a {@link CharSequenceInputBuffer}) rather than being copied into a char array first.
+     * If the input cannot be parsed within the configured parsing timeout the method returns null.
+     *
+     * @param markdownSource the markdown source to convert, e.g. a StringBuilder or CharBuffer
+     * @param linkRenderer the LinkRenderer to use
+     * @param verbatimSerializerMap the VerbatimSerializers to use
+     * @return the HTML
+     */
+    public String markdownToHtml(CharSequence markdownSource, LinkRenderer linkRenderer,
+                                 Map<String, VerbatimSerializer> verbatimSerializerMap) {
+        if (renderCache != null || blockCache != null || charArrayPathOverridden) {
+            return markdownToHtml(toCharArray(markdownSource), linkRenderer, verbatimSerializerMap);
+        }
+        ToHtmlSerializer serializer = new ToHtmlSerializer(linkRenderer, verbatimSerializerMap);
+        RootNode astRoot;
+        try {
+            astRoot = parseMarkdown(markdownSource);
+        } catch (ParsingTimeoutException e) {
+            return null;
+        }
+        return serialize(serializer, astRoot, null);
+    }
+
+    /**
+     * Converts the given markdown source to HTML, unless the given token is cancelled in the meantime.
+     * If the input cannot be parsed within the configured parsing timeout or the token is cancelled the method
+     * returns null.
+     *
+     * @param markdownSource the markdown source to convert, e.g. a String or StringBuilder
+     * @param cancellationToken the token to stop the parse with
+     * @return the HTML
+     */
+    public String markdownToHtml(CharSequence markdownSource, CancellationToken cancellationToken) {
+        return markdownToHtml(markdownSource, new LinkRenderer(), Collections.<String, VerbatimSerializer>emptyMap(),
+                cancellationToken);
+    }
+
+    /**
+     * Converts the given markdown source to HTML, unless the given token is cancelled in the meantime.
+     * If the input cannot be parsed within the configured parsing timeout or the token is cancelled the method
+     * returns null.
+     *
+     * @param markdownSource the markdown source to convert, e.g. a String or StringBuilder
+     * @param linkRenderer the LinkRenderer to use
+     * @param verbatimSerializerMap the VerbatimSerializers to use
+     * @param cancellationToken the token to stop the parse with
+     * @return the HTML
+     */
+    public String markdownToHtml(CharSequence markdownSource, LinkRenderer linkRenderer,
+                                 Map<String, VerbatimSerializer> verbatimSerializerMap,
+                                 CancellationToken cancellationToken) {
+        CancellationToken outerToken = parser.cancellationToken;
+        parser.cancellationToken = cancellationToken;
+        try {
+            return markdownToHtml(markdownSource, linkRenderer, verbatimSerializerMap);
+        } finally {
+            parser.cancellationToken = outerToken;
+        }
+    }
+
+    /**
+     * Converts the given markdown snippet, e.g. a title or a comment, to HTML without any block wrappers, so
+     * "Some *text*" becomes "Some <em>text</em>" rather than "<p>Some <em>text</em></p>".
+     * Only inline elements are recognized (see {@link Parser#parseInlines(char[])}), which saves the block detection
+     * as well as the handling of references and abbreviations. The caches are not used.
+     * If the input cannot be parsed within the configured parsing timeout the method returns null.
+     *
+     * @param markdownSource the markdown snippet to convert
+     * @return the HTML
+     */
+    public String inlineMarkdownToHtml(CharSequence markdownSource) {
+        return inlineMarkdownToHtml(markdownSource, new LinkRenderer());
+    }
+
+    /**
+     * Converts the given markdown snippet to HTML without any block wrappers (see
+     * {@link #inlineMarkdownToHtml(CharSequence)}).
+     * If the input cannot be parsed within the configured parsing timeout the method returns null.
+     *
+     * @param markdownSource the markdown snippet to convert
+     * @param linkRenderer the LinkRenderer to use
+     * @return the HTML
+     */
+    public String inlineMarkdownToHtml(CharSequence markdownSource, LinkRenderer linkRenderer) {
+        RootNode astRoot;
+        try {
+            astRoot = parseInlineMarkdown(markdownSource);
+        } catch (ParsingTimeoutException e) {
+            return null;
+        }
+        listener.serializationStarted();
+        long start = System.nanoTime();
+        String html = new ToHtmlSerializer(linkRenderer).inlinesToHtml(astRoot);
+        listener.serialized(html.length(), System.nanoTime() - start);
+        return html;
+    }
+
+    /**
+     * Converts the markdown source read from the given Reader to HTML.
+     * If the input cannot be parsed within the configured parsing timeout the method returns null.
+     *
+     * @param markdownSource the Reader to read the markdown source from, which is not closed
+     * @return the HTML
+     * @throws IOException if reading fails
+     */
+    public String markdownToHtml(Reader markdownSource) throws IOException {
+        return markdownToHtml(read(markdownSource));
+    }
+
     /**
      * Converts the given markdown source to HTML.
      * If the input cannot be parsed within the configured parsing timeout the method returns null.
@@ -151,13 +363,318 @@ public class PegDownProcessor {
 	    return markdownToHtml(markdownSource, linkRenderer, Collections.<String, VerbatimSerializer>emptyMap());
     }
 
-	public String markdownToHtml(char[] markdownSource, LinkRenderer linkRenderer, Map<String, VerbatimSerializer> verbatimSerializerMap) {
+	public String markdownToHtml(char[] markdownSource, LinkRenderer linkRenderer,
+                                 Map<String, VerbatimSerializer> verbatimSerializerMap) {
+        return renderMetered(markdownSource, linkRenderer, verbatimSerializerMap, null);
+    }
+
+    /**
+     * Converts the given markdown source to HTML, unless the given token is cancelled in the meantime.
+     * If the input cannot be parsed within the configured parsing timeout or the token is cancelled the method
+     * returns null.
+     *
+     * @param markdownSource the markdown source to convert
+     * @param linkRenderer the LinkRenderer to use
+     * @param verbatimSerializerMap the VerbatimSerializers to use
+     * @param cancellationToken the token to stop the parse with
+     * @return the HTML
+     */
+    public String markdownToHtml(char[] markdownSource, LinkRenderer linkRenderer,
+                                 Map<String, VerbatimSerializer> verbatimSerializerMap,
+                                 CancellationToken cancellationToken) {
+        CancellationToken outerToken = parser.cancellationToken;
+        parser.cancellationToken = cancellationToken;
+        try {
+            return markdownToHtml(markdownSource, linkRenderer, verbatimSerializerMap);
+        } finally {
+            parser.cancellationToken = outerToken;
+        }
+    }
+
+    /**
+     * Converts the given markdown source to HTML, which is written to the given Writer block by block: the HTML of
+     * every top-level block is written as soon as the block has been parsed and the block is discarded afterwards,
+     * so neither the AST nor the HTML of the complete document is ever held in memory.
+     * The references and abbreviations of the document are collected upfront by a quick scan for their definitions
+     * (see {@link Parser#scanDefinitions(char[])}). Unlike a complete rendering this scan does not find definitions
+     * nested in blockquotes or list items, so references to them are rendered literally.
+     * The RenderCache is not used, the block cache is.
+     * If the input cannot be parsed within the configured parsing timeout the method returns false, after the HTML of
+     * all blocks parsed so far has been written.
+     *
+     * @param markdownSource the markdown source to convert
+     * @param out the Writer to write the HTML to
+     * @return true if the complete document has been converted
+     * @throws IOException if writing to the Writer fails
+     */
+    public boolean markdownToHtml(char[] markdownSource, Writer out) throws IOException {
+        return markdownToHtml(markdownSource, out, new LinkRenderer(),
+                Collections.<String, VerbatimSerializer>emptyMap());
+    }
+
+    /**
+     * Converts the given markdown source to HTML, which is written to the given Writer block by block: the HTML of
+     * every top-level block is written as soon as the block has been parsed and the block is discarded afterwards,
+     * so neither the AST nor the HTML of the complete document is ever held in memory.
+     * The references and abbreviations of the document are collected upfront by a quick scan for their definitions
+     * (see {@link Parser#scanDefinitions(char[])}). Unlike a complete rendering this scan does not find definitions
+     * nested in blockquotes or list items, so references to them are rendered literally.
+     * The RenderCache is not used, the block cache is.
+     * If the input cannot be parsed within the configured parsing timeout the method returns false, after the HTML of
+     * all blocks parsed so far has been written.
+     *
+     * @param markdownSource the markdown source to convert
+     * @param out the Writer to write the HTML to
+     * @param linkRenderer the LinkRenderer to use
+     * @param verbatimSerializerMap the VerbatimSerializers to use
+     * @return true if the complete document has been converted
+     * @throws IOException if writing to the Writer fails
+     */
+    public boolean markdownToHtml(char[] markdownSource, Writer out, LinkRenderer linkRenderer,
+                                  Map<String, VerbatimSerializer> verbatimSerializerMap) throws IOException {
+        char[] source = prepare(markdownSource);
+        ToHtmlSerializer serializer = new ToHtmlSerializer(linkRenderer, verbatimSerializerMap);
+        String context = blockCache != null ? renderCacheContext(linkRenderer, verbatimSerializerMap) : null;
+        if (context != null) serializer.useBlockCache(blockCache, source, "block;" + context);
+        return renderBlocks(new DefaultInputBuffer(source), source.length, serializer, out);
+    }
+
+    /**
+     * Converts the given UTF-8 encoded markdown source to HTML, which is written UTF-8 encoded to the given
+     * OutputStream. Unless a cache is used or the char[] based rendering is overridden, the source is parsed
+     * directly (with a {@link Utf8InputBuffer}) rather than being decoded into a char array first, and the HTML of
+     * every top-level block is encoded straight into the OutputStream (with a {@link Utf8Writer}) as soon as it has
+     * been serialized, so the HTML of the complete document is never held in memory.
+     * If the input cannot be parsed within the configured parsing timeout the method returns false without writing
+     * anything.
+     *
+     * @param markdownSource the UTF-8 encoded markdown source to convert
+     * @param out the OutputStream to write the HTML to, which is neither flushed nor closed
+     * @return true if the complete document has been converted
+     * @throws IOException if writing to the OutputStream fails
+     */
+    public boolean markdownToHtml(byte[] markdownSource, OutputStream out) throws IOException {
+        return markdownToHtml(markdownSource, out, new LinkRenderer(),
+                Collections.<String, VerbatimSerializer>emptyMap());
+    }
+
+    /**
+     * Converts the given UTF-8 encoded markdown source to HTML, which is written UTF-8 encoded to the given
+     * OutputStream. Unless a cache is used or the char[] based rendering is overridden, the source is parsed
+     * directly (with a {@link Utf8InputBuffer}) rather than being decoded into a char array first, and the HTML of
+     * every top-level block is encoded straight into the OutputStream (with a {@link Utf8Writer}) as soon as it has
+     * been serialized, so the HTML of the complete document is never held in memory.
+     * If the input cannot be parsed within the configured parsing timeout the method returns false without writing
+     * anything.
+     *
+     * @param markdownSource the UTF-8 encoded markdown source to convert
+     * @param out the OutputStream to write the HTML to, which is neither flushed nor closed
+     * @param linkRenderer the LinkRenderer to use
+     * @param verbatimSerializerMap the VerbatimSerializers to use
+     * @return true if the complete document has been converted
+     * @throws IOException if writing to the OutputStream fails
+     */
+    public boolean markdownToHtml(byte[] markdownSource, OutputStream out, LinkRenderer linkRenderer,
+                                  Map<String, VerbatimSerializer> verbatimSerializerMap) throws IOException {
+        Utf8Writer writer = new Utf8Writer(out);
+        if (renderCache != null || blockCache != null || charArrayPathOverridden) {
+            String html = markdownToHtml(decodeUtf8(markdownSource), linkRenderer, verbatimSerializerMap);
+            if (html == null) return false;
+            writer.write(html);
+            writer.finish();
+            return true;
+        }
+        listener.sourcePreparationStarted(markdownSource.length);
+        long start = System.nanoTime();
+        Utf8InputBuffer input = new Utf8InputBuffer(ByteBuffer.wrap(markdownSource));
+        listener.sourcePrepared(input.getChars().length(), System.nanoTime() - start);
+        RootNode astRoot;
+        try {
+            astRoot = parse(input, input.length());
+        } catch (ParsingTimeoutException e) {
+            return false;
+        }
+        // the complete AST carries all definitions, so the blocks render exactly like the complete document
+        ToHtmlSerializer serializer = new ToHtmlSerializer(linkRenderer, verbatimSerializerMap).useDefinitions(astRoot);
+        BlockWriter blockWriter = new BlockWriter(serializer, writer);
+        listener.serializationStarted();
+        try {
+            for (Node block : astRoot.getChildren()) {
+                blockWriter.write(block);
+            }
+        } catch (WriterException e) {
+            throw e.getCause();
+        }
+        writer.finish();
+        listener.serialized(blockWriter.htmlLength, blockWriter.serializeNanos);
+        return true;
+    }
+
+    /**
+     * Converts the given UTF-8 encoded markdown file to HTML, which is written to the given Writer block by block.
+     * The file is memory-mapped and decoded lazily (see {@link Utf8InputBuffer}), so that neither the source nor the
+     * AST nor the HTML of the complete document are ever held on the heap, which makes this method suitable for files
+     * of hundreds of megabytes (up to 2 GB).
+     * The references and abbreviations of the document are collected upfront by a quick scan for their definitions,
+     * which does not find definitions nested in blockquotes or list items, so references to them are rendered
+     * literally. No caches are used.
+     * If the input cannot be parsed within the configured parsing timeout the method returns false, after the HTML of
+     * all blocks parsed so far has been written.
+     *
+     * @param file the markdown file
+     * @param out the Writer to write the HTML to
+     * @return true if the complete document has been converted
+     * @throws IOException if reading the file or writing to the Writer fails
+     */
+    public boolean markdownFileToHtml(File file, Writer out) throws IOException {
+        return markdownFileToHtml(file, out, new LinkRenderer(), Collections.<String, VerbatimSerializer>emptyMap());
+    }
+
+    /**
+     * Converts the given UTF-8 encoded markdown file to HTML, which is written to the given Writer block by block.
+     * The file is memory-mapped and decoded lazily (see {@link Utf8InputBuffer}), so that neither the source nor the
+     * AST nor the HTML of the complete document are ever held on the heap, which makes this method suitable for files
+     * of hundreds of megabytes (up to 2 GB).
+     * The references and abbreviations of the document are collected upfront by a quick scan for their definitions,
+     * which does not find definitions nested in blockquotes or list items, so references to them are rendered
+     * literally. No caches are used.
+     * If the input cannot be parsed within the configured parsing timeout the method returns false, after the HTML of
+     * all blocks parsed so far has been written.
+     *
+     * @param file the markdown file
+     * @param out the Writer to write the HTML to
+     * @param linkRenderer the LinkRenderer to use
+     * @param verbatimSerializerMap the VerbatimSerializers to use
+     * @return true if the complete document has been converted
+     * @throws IOException if reading the file or writing to the Writer fails
+     */
+    public boolean markdownFileToHtml(File file, Writer out, LinkRenderer linkRenderer,
+                                      Map<String, VerbatimSerializer> verbatimSerializerMap) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (prepareSourceOverridden) {
+                return markdownToHtml(toCharArray(new Utf8InputBuffer(bytes).getChars()), out, linkRenderer,
+                        verbatimSerializerMap);
+            }
+            listener.sourcePreparationStarted(bytes.limit());
+            long start = System.nanoTime();
+            Utf8InputBuffer input = new Utf8InputBuffer(bytes);
+            listener.sourcePrepared(input.getChars().length(), System.nanoTime() - start);
+            return renderBlocks(input, input.length(), new ToHtmlSerializer(linkRenderer, verbatimSerializerMap), out);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private boolean renderBlocks(InputBuffer input, int inputLength, ToHtmlSerializer serializer, Writer out)
+            throws IOException {
+        BlockWriter blockWriter = new BlockWriter(serializer, out);
+        listener.serializationStarted();
+        long start = System.nanoTime();
+        try {
+            serializer.useDefinitions(parser.scanDefinitions(input, inputLength));
+            parser.parse(input, inputLength, blockWriter);
+        } catch (ParsingTimeoutException e) {
+            if (!(e instanceof ParsingCancelledException)) {
+                listener.parsingTimedOut(inputLength, System.nanoTime() - start);
+            }
+            return false;
+        } catch (WriterException e) {
+            throw e.getCause();
+        }
+        listener.serialized(blockWriter.htmlLength, blockWriter.serializeNanos);
+        return true;
+    }
+
+    /**
+     * Converts the given markdown source to HTML and measures the CPU time and heap allocation this cost the
+     * current thread. Results served from the RenderCache cost nothing, including those rendered by another thread
+     * while the current one waited for them (see {@link RenderCache#get(String, Callable)}): the wait is neither CPU
+     * time nor allocation of the current thread, and the rendering is accounted to the thread that ran it.
+     * If the input cannot be parsed within the configured parsing timeout the value of the result is null, while its
+     * cost is that of the aborted parse.
+     *
+     * @param markdownSource the markdown source to convert
+     * @return the HTML and its cost
+     */
+    public Measured<String> measuredMarkdownToHtml(String markdownSource) {
+        return measuredMarkdownToHtml(markdownSource.toCharArray(), new LinkRenderer(),
+                Collections.<String, VerbatimSerializer>emptyMap());
+    }
+
+    /**
+     * Converts the given markdown source to HTML and measures the CPU time and heap allocation this cost the
+     * current thread. Results served from the RenderCache cost nothing, including those rendered by another thread
+     * while the current one waited for them (see {@link RenderCache#get(String, Callable)}): the wait is neither CPU
+     * time nor allocation of the current thread, and the rendering is accounted to the thread that ran it.
+     * If the input cannot be parsed within the configured parsing timeout the value of the result is null, while its
+     * cost is that of the aborted parse.
+     *
+     * @param markdownSource the markdown source to convert
+     * @param linkRenderer the LinkRenderer to use
+     * @param verbatimSerializerMap the VerbatimSerializers to use
+     * @return the HTML and its cost
+     */
+    public Measured<String> measuredMarkdownToHtml(char[] markdownSource, LinkRenderer linkRenderer,
+                                                   Map<String, VerbatimSerializer> verbatimSerializerMap) {
+        ProcessingCost.Meter meter = new ProcessingCost.Meter();
+        String html = renderMetered(markdownSource, linkRenderer, verbatimSerializerMap, meter);
+        return new Measured<String>(html, meter.toCost());
+    }
+
+    private String renderMetered(final char[] markdownSource, final LinkRenderer linkRenderer,
+                                 final Map<String, VerbatimSerializer> verbatimSerializerMap,
+                                 final ProcessingCost.Meter meter) {
+        String context = renderCache != null ? renderCacheContext(linkRenderer, verbatimSerializerMap) : null;
+        try {
+            if (context != null) {
+                String key = RenderCache.createKey(markdownSource, context);
+                return renderCache.get(key, new Callable<String>() {
+                    public String call() {
+                        return render(markdownSource, linkRenderer, verbatimSerializerMap, meter);
+                    }
+                });
+            }
+            return render(markdownSource, linkRenderer, verbatimSerializerMap, meter);
+        } catch (ParsingCancelledException e) {
+            return null;
+        }
+    }
+
+    // throws rather than returns null on cancellation, so that the RenderCache lets the threads waiting for this
+    // rendering render themselves instead of handing them the result of a cancellation they did not ask for
+    private String render(char[] markdownSource, LinkRenderer linkRenderer,
+                          Map<String, VerbatimSerializer> verbatimSerializerMap, ProcessingCost.Meter meter) {
+        ToHtmlSerializer serializer = new ToHtmlSerializer(linkRenderer, verbatimSerializerMap);
+        RootNode astRoot;
+        String context = blockCache != null ? renderCacheContext(linkRenderer, verbatimSerializerMap) : null;
+        if (meter != null) meter.start();
         try {
-            RootNode astRoot = parseMarkdown(markdownSource);
-            return new ToHtmlSerializer(linkRenderer, verbatimSerializerMap).toHtml(astRoot);
+            if (context != null) {
+                char[] source = prepare(markdownSource);
+                astRoot = parse(source);
+                serializer.useBlockCache(blockCache, source, "block;" + context);
+            } else astRoot = parseMarkdown(markdownSource);
+        } catch (ParsingCancelledException e) {
+            throw e;
         } catch(ParsingTimeoutException e) {
             return null;
+        } finally {
+            if (meter != null) meter.parsed();
         }
+        return serialize(serializer, astRoot, meter);
+    }
+
+    private String serialize(ToHtmlSerializer serializer, RootNode astRoot, ProcessingCost.Meter meter) {
+        if (meter != null) meter.start();
+        listener.serializationStarted();
+        long start = System.nanoTime();
+        String html = serializer.toHtml(astRoot);
+        listener.serialized(html.length(), System.nanoTime() - start);
+        if (meter != null) meter.serialized();
+        return html;
     }
 
     /**
@@ -168,7 +685,281 @@ public class PegDownProcessor {
      * @return the AST root
      */
     public RootNode parseMarkdown(char[] markdownSource) {
-        return parser.parse(prepareSource(markdownSource));
+        return parse(prepare(markdownSource));
+    }
+
+    /**
+     * Parses the given markdown source and returns the root node of the generated Abstract Syntax Tree, unless the
+     * given token is cancelled in the meantime.
+     * If the input cannot be parsed within the configured parsing timeout the method throws a ParsingTimeoutException,
+     * if the token is cancelled a {@link ParsingCancelledException}.
+     *
+     * @param markdownSource the markdown source to convert
+     * @param cancellationToken the token to stop the parse with
+     * @return the AST root
+     */
+    public RootNode parseMarkdown(char[] markdownSource, CancellationToken cancellationToken) {
+        CancellationToken outerToken = parser.cancellationToken;
+        parser.cancellationToken = cancellationToken;
+        try {
+            return parseMarkdown(markdownSource);
+        } finally {
+            parser.cancellationToken = outerToken;
+        }
+    }
+
+    /**
+     * Parses the given markdown source and reports its nodes to the given handler in document order, without ever
+     * building the AST of the complete document.
+     * If the input cannot be parsed within the configured parsing timeout the method throws a ParsingTimeoutException
+     * (after the nodes of all blocks parsed so far have been reported).
+     *
+     * @param markdownSource the markdown source to parse
+     * @param handler the handler to report the nodes to
+     */
+    public void parseMarkdown(char[] markdownSource, MarkdownHandler handler) {
+        char[] source = prepare(markdownSource);
+        long start = System.nanoTime();
+        try {
+            parser.parse(source, handler);
+        } catch (ParsingTimeoutException e) {
+            if (!(e instanceof ParsingCancelledException)) {
+                listener.parsingTimedOut(source.length, System.nanoTime() - start);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Parses the given markdown source and measures the CPU time and heap allocation this cost the current thread.
+     * If the input cannot be parsed within the configured parsing timeout the value of the result is null, while its
+     * cost is that of the aborted parse.
+     *
+     * @param markdownSource the markdown source to parse
+     * @return the AST root and its cost
+     */
+    public Measured<RootNode> measuredParseMarkdown(char[] markdownSource) {
+        ProcessingCost.Meter meter = new ProcessingCost.Meter();
+        RootNode astRoot = null;
+        meter.start();
+        try {
+            astRoot = parseMarkdown(markdownSource);
+        } catch (ParsingTimeoutException e) {
+            // the null result signals the timeout
+        } finally {
+            meter.parsed();
+        }
+        return new Measured<RootNode>(astRoot, meter.toCost());
+    }
+
+    private char[] prepare(char[] markdownSource) {
+        listener.sourcePreparationStarted(markdownSource.length);
+        long start = System.nanoTime();
+        char[] source = prepareSource(markdownSource);
+        listener.sourcePrepared(markdownSource.length, System.nanoTime() - start);
+        return source;
+    }
+
+    /**
+     * Parses the given markdown source and returns the root node of the generated Abstract Syntax Tree.
+     * Unless {@link #prepareSource(char[])} or {@link #parseMarkdown(char[])} is overridden, the source is parsed
+     * directly (with a {@link CharSequenceInputBuffer}) rather than being copied into a char array first.
+     * If the input cannot be parsed within the configured parsing timeout the method throws a ParsingTimeoutException.
+     *
+     * @param markdownSource the markdown source to convert, e.g. a String, StringBuilder or CharBuffer
+     * @return the AST root
+     */
+    public RootNode parseMarkdown(CharSequence markdownSource) {
+        if (charArrayPathOverridden) return parseMarkdown(toCharArray(markdownSource));
+        listener.sourcePreparationStarted(markdownSource.length());
+        long start = System.nanoTime();
+        CharSequenceInputBuffer input = new CharSequenceInputBuffer(markdownSource);
+        listener.sourcePrepared(markdownSource.length(), System.nanoTime() - start);
+        return parse(input, input.length());
+    }
+
+    /**
+     * Parses the given markdown source and returns the root node of the generated Abstract Syntax Tree, unless the
+     * given token is cancelled in the meantime.
+     * If the input cannot be parsed within the configured parsing timeout the method throws a ParsingTimeoutException,
+     * if the token is cancelled a {@link ParsingCancelledException}.
+     *
+     * @param markdownSource the markdown source to convert, e.g. a String, StringBuilder or CharBuffer
+     * @param cancellationToken the token to stop the parse with
+     * @return the AST root
+     */
+    public RootNode parseMarkdown(CharSequence markdownSource, CancellationToken cancellationToken) {
+        CancellationToken outerToken = parser.cancellationToken;
+        parser.cancellationToken = cancellationToken;
+        try {
+            return parseMarkdown(markdownSource);
+        } finally {
+            parser.cancellationToken = outerToken;
+        }
+    }
+
+    /**
+     * Parses the given markdown snippet as a sequence of inline elements (see {@link Parser#parseInlines(char[])})
+     * and returns the root node of the generated Abstract Syntax Tree.
+     * If the input cannot be parsed within the configured parsing timeout the method throws a ParsingTimeoutException.
+     *
+     * @param markdownSource the markdown snippet to parse
+     * @return the AST root
+     */
+    public RootNode parseInlineMarkdown(CharSequence markdownSource) {
+        if (prepareSourceOverridden) {
+            char[] source = prepare(toCharArray(markdownSource));
+            return parse(new DefaultInputBuffer(source), source.length, true);
+        }
+        listener.sourcePreparationStarted(markdownSource.length());
+        long start = System.nanoTime();
+        CharSequenceInputBuffer input = new CharSequenceInputBuffer(markdownSource);
+        listener.sourcePrepared(markdownSource.length(), System.nanoTime() - start);
+        return parse(input, input.length(), true);
+    }
+
+    private RootNode parse(char[] source) {
+        return parse(new DefaultInputBuffer(source), source.length);
+    }
+
+    private RootNode parse(InputBuffer input, int inputLength) {
+        return parse(input, inputLength, false);
+    }
+
+    private RootNode parse(InputBuffer input, int inputLength, boolean inlinesOnly) {
+        long start = System.nanoTime();
+        RootNode astRoot;
+        try {
+            astRoot = inlinesOnly ? parser.parseInlines(input, inputLength) : parser.parse(input, inputLength);
+        } catch (ParsingTimeoutException e) {
+            if (!(e instanceof ParsingCancelledException)) {
+                listener.parsingTimedOut(inputLength, System.nanoTime() - start);
+            }
+            throw e;
+        }
+        if (listener.isCountingNodes()) {
+            Map<Class<? extends Node>, Integer> counts = new HashMap<Class<? extends Node>, Integer>();
+            countNodes(astRoot, counts);
+            listener.nodesCounted(counts);
+        }
+        return astRoot;
+    }
+
+    private static char[] toCharArray(CharSequence chars) {
+        if (chars instanceof String) return ((String) chars).toCharArray();
+        char[] array = new char[chars.length()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = chars.charAt(i);
+        }
+        return array;
+    }
+
+    // decodes like new String(bytes, "UTF-8") but straight into a char array, which only needs to be trimmed
+    // if the source contains multi-byte characters
+    private static char[] decodeUtf8(byte[] bytes) {
+        char[] chars = new char[bytes.length];
+        CharBuffer buffer = CharBuffer.wrap(chars);
+        CharsetDecoder decoder = Charset.forName("UTF-8").newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        decoder.decode(ByteBuffer.wrap(bytes), buffer, true);
+        decoder.flush(buffer);
+        if (buffer.position() == chars.length) return chars;
+        char[] decoded = new char[buffer.position()];
+        System.arraycopy(chars, 0, decoded, 0, decoded.length);
+        return decoded;
+    }
+
+    private static StringBuilder read(Reader reader) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        char[] buffer = new char[8192];
+        int count;
+        while ((count = reader.read(buffer)) != -1) {
+            sb.append(buffer, 0, count);
+        }
+        return sb;
+    }
+
+    private static void countNodes(Node node, Map<Class<? extends Node>, Integer> counts) {
+        Integer count = counts.get(node.getClass());
+        counts.put(node.getClass(), count == null ? 1 : count + 1);
+        for (Node child : node.getChildren()) {
+            countNodes(child, counts);
+        }
+    }
+
+    // serializes and writes every top-level block as soon as it is reported
+    private static class BlockWriter implements MarkdownHandler {
+        private final ToHtmlSerializer serializer;
+        private final Writer out;
+        private int depth;
+        int htmlLength;
+        long serializeNanos;
+
+        BlockWriter(ToHtmlSerializer serializer, Writer out) {
+            this.serializer = serializer;
+            this.out = out;
+        }
+
+        public void startNode(Node node) {
+            if (depth++ == 1) write(node);
+        }
+
+        public void endNode(Node node) {
+            depth--;
+        }
+
+        public void text(TextNode node) {
+            if (depth == 1) write(node);
+        }
+
+        void write(Node block) {
+            long start = System.nanoTime();
+            String html = serializer.blockToHtml(block);
+            serializeNanos += System.nanoTime() - start;
+            htmlLength += html.length();
+            try {
+                out.write(html);
+            } catch (IOException e) {
+                throw new WriterException(e);
+            }
+        }
+    }
+
+    private static class WriterException extends RuntimeException {
+        WriterException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+
+    /**
+     * Describes everything besides the markdown source that influences the HTML produced by this processor.
+     * Since the caches might be shared by all processors of an application the description must not depend on object
+     * identities.
+     *
+     * @param linkRenderer the LinkRenderer to use
+     * @param verbatimSerializerMap the VerbatimSerializers to use
+     * @return the context string for building render cache keys, or null if the HTML must not be cached
+     */
+    protected String renderCacheContext(LinkRenderer linkRenderer, Map<String, VerbatimSerializer> verbatimSerializerMap) {
+        String linkRendererIdentity = linkRenderer.getCacheIdentity();
+        String pluginsIdentity = parser.plugins.getCacheIdentity();
+        if (linkRendererIdentity == null || pluginsIdentity == null) return null;
+        StringBuilder sb = new StringBuilder()
+                .append(parser.getClass().getName()).append(';')
+                .append(parser.options).append(';')
+                .append(pluginsIdentity).append(';')
+                .append(linkRendererIdentity);
+        for (Map.Entry<String, VerbatimSerializer> entry :
+                new TreeMap<String, VerbatimSerializer>(verbatimSerializerMap).entrySet()) {
+            sb.append(';').append(entry.getKey()).append('=').append(entry.getValue().getClass().getName());
+        }
+        return sb.toString();
     }
 
     /**
@@ -0,0 +1,480 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown;
+
+import org.pegdown.plugins.PegDownPlugins;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A thread-safe pool of PegDownProcessors of the same configuration, which renders markdown on any number of threads
+ * concurrently. Since a PegDownProcessor is not thread-safe every rendering borrows a processor exclusively, idle
+ * processors are kept in a lock-free queue and new ones are only created when all existing ones are in use, so the
+ * number of processors never exceeds the number of threads rendering at the same time.
+ * Besides single renderings the pool renders batches of documents on a given ExecutorService (see
+ * {@link #renderAll(List, ExecutorService)}) and single documents asynchronously (see
+ * {@link #renderAsync(CharSequence, Executor)}).
+ */
+public class PegDownProcessorPool {
+
+    private final int options;
+    private final long maxParsingTimeInMillis;
+    private final PegDownPlugins plugins;
+    private final ConcurrentLinkedQueue<PegDownProcessor> idle = new ConcurrentLinkedQueue<PegDownProcessor>();
+    private final AtomicInteger created = new AtomicInteger();
+    private final AtomicInteger borrowed = new AtomicInteger();
+    private final int maxAsyncRenderings;
+    private final Semaphore asyncPermits;
+
+    /**
+     * Creates a pool of processors with the given {@link org.pegdown.Extensions} and the default parsing timeout.
+     *
+     * @param options the flags of the extensions to enable as a bitmask
+     */
+    public PegDownProcessorPool(int options) {
+        this(options, PegDownProcessor.DEFAULT_MAX_PARSING_TIME);
+    }
+
+    /**
+     * Creates a pool of processors with the given {@link org.pegdown.Extensions} and parsing timeout.
+     *
+     * @param options the flags of the extensions to enable as a bitmask
+     * @param maxParsingTimeInMillis the parsing timeout, which applies to every document individually
+     */
+    public PegDownProcessorPool(int options, long maxParsingTimeInMillis) {
+        this(options, maxParsingTimeInMillis, PegDownPlugins.NONE);
+    }
+
+    /**
+     * Creates a pool of processors with the given {@link org.pegdown.Extensions}, parsing timeout and plugins.
+     *
+     * @param options the flags of the extensions to enable as a bitmask
+     * @param maxParsingTimeInMillis the parsing timeout, which applies to every document individually
+     * @param plugins the plugins to use
+     */
+    public PegDownProcessorPool(int options, long maxParsingTimeInMillis, PegDownPlugins plugins) {
+        this(options, maxParsingTimeInMillis, plugins, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a pool of processors with the given {@link org.pegdown.Extensions}, parsing timeout and plugins.
+     *
+     * @param options the flags of the extensions to enable as a bitmask
+     * @param maxParsingTimeInMillis the parsing timeout, which applies to every document individually
+     * @param plugins the plugins to use
+     * @param maxAsyncRenderings the maximum number of asynchronous renderings running at the same time, by default
+     * the number of CPU cores
+     */
+    public PegDownProcessorPool(int options, long maxParsingTimeInMillis, PegDownPlugins plugins,
+                                int maxAsyncRenderings) {
+        if (maxAsyncRenderings < 1) throw new IllegalArgumentException("maxAsyncRenderings must be positive");
+        this.options = options;
+        this.maxParsingTimeInMillis = maxParsingTimeInMillis;
+        this.plugins = plugins;
+        this.maxAsyncRenderings = maxAsyncRenderings;
+        this.asyncPermits = new Semaphore(maxAsyncRenderings);
+    }
+
+    /**
+     * Creates a new processor for the pool, override to use caches, listeners or custom processor classes.
+     * Must be thread-safe.
+     *
+     * @return a new processor
+     */
+    protected PegDownProcessor createProcessor() {
+        return new PegDownProcessor(options, maxParsingTimeInMillis, plugins);
+    }
+
+    /**
+     * Borrows a processor for exclusive use by the current thread, which must be returned with
+     * {@link #release(PegDownProcessor)} afterwards.
+     *
+     * @return an idle or new processor
+     */
+    public PegDownProcessor borrow() {
+        PegDownProcessor processor = idle.poll();
+        if (processor == null) {
+            processor = createProcessor();
+            created.incrementAndGet();
+        }
+        borrowed.incrementAndGet();
+        return processor;
+    }
+
+    /**
+     * Returns a processor borrowed with {@link #borrow()} to the pool.
+     *
+     * @param processor the processor
+     */
+    public void release(PegDownProcessor processor) {
+        borrowed.decrementAndGet();
+        idle.offer(processor);
+    }
+
+    /**
+     * @return the number of processors created by this pool so far
+     */
+    public int getProcessorCount() {
+        return created.get();
+    }
+
+    /**
+     * @return the number of processors currently borrowed, i.e. the number of renderings currently running
+     */
+    public int getBorrowedCount() {
+        return borrowed.get();
+    }
+
+    /**
+     * @return the number of processors currently waiting in the pool for the next rendering
+     */
+    public int getIdleCount() {
+        // derived from the counters, since the size of the idle queue is not a constant-time operation
+        return Math.max(0, created.get() - borrowed.get());
+    }
+
+    /**
+     * @return the number of asynchronous renderings currently holding one of the maxAsyncRenderings permits
+     */
+    public int getAsyncRenderingCount() {
+        return maxAsyncRenderings - asyncPermits.availablePermits();
+    }
+
+    /**
+     * @return the maximum number of asynchronous renderings running at the same time
+     */
+    public int getMaxAsyncRenderings() {
+        return maxAsyncRenderings;
+    }
+
+    /**
+     * Converts the given markdown source to HTML with a processor from the pool.
+     * If the input cannot be parsed within the configured parsing timeout the method returns null.
+     *
+     * @param markdownSource the markdown source to convert
+     * @return the HTML
+     */
+    public String markdownToHtml(CharSequence markdownSource) {
+        PegDownProcessor processor = borrow();
+        try {
+            return processor.markdownToHtml(markdownSource);
+        } finally {
+            release(processor);
+        }
+    }
+
+    /**
+     * Converts the given markdown source to HTML on the given executor.
+     * Since parsing is CPU-bound, at most maxAsyncRenderings (see
+     * {@link #PegDownProcessorPool(int, long, PegDownPlugins, int)}) documents are rendered at the same time, all
+     * other tasks wait for a permit. Neither this wait nor the borrowing of a processor holds a monitor, so the
+     * executor may well run its tasks on virtual threads.
+     * Cancelling the returned Future stops the rendering even if it is already running (see
+     * {@link CancellationToken}).
+     * If the input cannot be parsed within the configured parsing timeout the Future yields null.
+     *
+     * @param markdownSource the markdown source to convert, which must not be modified until the Future is done
+     * @param executor the executor to render on
+     * @return the Future yielding the HTML
+     */
+    public Future<String> renderAsync(CharSequence markdownSource, Executor executor) {
+        AsyncRendering rendering = new AsyncRendering(markdownSource);
+        executor.execute(rendering.future);
+        return rendering.future;
+    }
+
+    /**
+     * Converts the given markdown source to HTML with a processor from the pool.
+     * If the input cannot be parsed within the configured parsing timeout or the given token is cancelled in the
+     * meantime the method returns null.
+     *
+     * @param markdownSource the markdown source to convert
+     * @param cancellationToken the token to stop the parse with
+     * @return the HTML
+     */
+    public String markdownToHtml(CharSequence markdownSource, CancellationToken cancellationToken) {
+        PegDownProcessor processor = borrow();
+        try {
+            return processor.markdownToHtml(markdownSource, cancellationToken);
+        } finally {
+            release(processor);
+        }
+    }
+
+    /**
+     * Converts all given documents to HTML, distributing them across the threads of the given executor with twice
+     * as many documents in flight as there are CPU cores (see
+     * {@link #renderAll(List, ExecutorService, int)}).
+     *
+     * @param sources the markdown sources to convert
+     * @param executor the executor to render on
+     * @return the HTML of all documents in the order of the sources, along with the throughput
+     * @throws InterruptedException if the current thread is interrupted while waiting for a rendering
+     */
+    public BatchResult renderAll(List<? extends CharSequence> sources, ExecutorService executor)
+            throws InterruptedException {
+        return renderAll(sources, executor, 2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Converts all given documents to HTML, distributing them across the threads of the given executor.
+     * Documents which cannot be parsed within the configured parsing timeout have a null HTML result and are
+     * counted as timeouts, without failing the batch. Any other exception thrown while rendering a document
+     * cancels the rest of the batch and is rethrown.
+     *
+     * @param sources the markdown sources to convert
+     * @param executor the executor to render on
+     * @param maxInFlight the maximum number of documents submitted to the executor at the same time
+     * @return the HTML of all documents in the order of the sources, along with the throughput
+     * @throws InterruptedException if the current thread is interrupted while waiting for a rendering
+     */
+    public BatchResult renderAll(List<? extends CharSequence> sources, ExecutorService executor, int maxInFlight)
+            throws InterruptedException {
+        final List<String> html = new ArrayList<String>(sources.size());
+        BatchStatistics statistics = renderAll(sources.iterator(), executor, maxInFlight, new BatchHandler() {
+            public void rendered(int index, CharSequence source, String result) {
+                html.add(result);
+            }
+        });
+        return new BatchResult(statistics, Collections.unmodifiableList(html));
+    }
+
+    /**
+     * Converts the documents of the given iterator to HTML, distributing them across the threads of the given
+     * executor. The results are handed to the given handler on the current thread in the order of the sources, as
+     * soon as each of them and all its predecessors are done. Since at most maxInFlight documents are read ahead
+     * of the handler, the iterator can stream arbitrarily many documents.
+     * Documents which cannot be parsed within the configured parsing timeout have a null HTML result and are
+     * counted as timeouts, without failing the batch. Any other exception thrown while rendering a document or by
+     * the handler cancels the rest of the batch and is rethrown.
+     *
+     * @param sources the markdown sources to convert
+     * @param executor the executor to render on
+     * @param maxInFlight the maximum number of documents submitted to the executor at the same time
+     * @param handler the handler to pass the results to
+     * @return the throughput of the batch
+     * @throws InterruptedException if the current thread is interrupted while waiting for a rendering
+     */
+    public BatchStatistics renderAll(Iterator<? extends CharSequence> sources, ExecutorService executor,
+                                     int maxInFlight, BatchHandler handler) throws InterruptedException {
+        if (maxInFlight < 1) throw new IllegalArgumentException("maxInFlight must be positive");
+        long start = System.nanoTime();
+        BatchStatistics statistics = new BatchStatistics();
+        LinkedList<Rendering> inFlight = new LinkedList<Rendering>();
+        try {
+            while (true) {
+                while (inFlight.size() < maxInFlight && sources.hasNext()) {
+                    Rendering rendering = new Rendering(sources.next());
+                    rendering.result = executor.submit(rendering);
+                    inFlight.add(rendering);
+                }
+                if (inFlight.isEmpty()) break;
+                Rendering rendering = inFlight.removeFirst();
+                String html = rendering.getHtml();
+                handler.rendered(statistics.documents, rendering.source, html);
+                statistics.add(rendering.source, html);
+            }
+        } finally {
+            for (Rendering rendering : inFlight) {
+                rendering.result.cancel(false);
+            }
+        }
+        statistics.nanos = System.nanoTime() - start;
+        return statistics;
+    }
+
+    /**
+     * Receives the results of {@link PegDownProcessorPool#renderAll(Iterator, ExecutorService, int, BatchHandler)}.
+     */
+    public interface BatchHandler {
+        /**
+         * @param index the index of the document in the batch
+         * @param source the markdown source of the document
+         * @param html the HTML of the document, or null if it could not be parsed within the parsing timeout
+         */
+        void rendered(int index, CharSequence source, String html);
+    }
+
+    /**
+     * The size and throughput of a batch rendering.
+     */
+    public static class BatchStatistics {
+        private int documents;
+        private int timeouts;
+        private long sourceChars;
+        private long htmlChars;
+        private long nanos;
+
+        BatchStatistics() {
+        }
+
+        BatchStatistics(BatchStatistics other) {
+            documents = other.documents;
+            timeouts = other.timeouts;
+            sourceChars = other.sourceChars;
+            htmlChars = other.htmlChars;
+            nanos = other.nanos;
+        }
+
+        void add(CharSequence source, String html) {
+            documents++;
+            sourceChars += source.length();
+            if (html == null) timeouts++;
+            else htmlChars += html.length();
+        }
+
+        /**
+         * @return the number of documents in the batch, including those that timed out
+         */
+        public int getDocumentCount() {
+            return documents;
+        }
+
+        /**
+         * @return the number of documents that could not be parsed within the parsing timeout
+         */
+        public int getTimeoutCount() {
+            return timeouts;
+        }
+
+        /**
+         * @return the total number of characters of the markdown sources of the batch
+         */
+        public long getSourceChars() {
+            return sourceChars;
+        }
+
+        /**
+         * @return the total number of characters of the HTML rendered, not counting the documents that timed out
+         */
+        public long getHtmlChars() {
+            return htmlChars;
+        }
+
+        /**
+         * @return the wall-clock time the batch took
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * @return the number of documents rendered per second of wall-clock time
+         */
+        public double getDocumentsPerSecond() {
+            return nanos > 0 ? documents * 1e9 / nanos : 0.0;
+        }
+
+        /**
+         * @return the number of markdown source characters rendered per second of wall-clock time
+         */
+        public double getSourceCharsPerSecond() {
+            return nanos > 0 ? sourceChars * 1e9 / nanos : 0.0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d documents (%d timed out), %d chars in %.1f ms: %.0f documents/s, %.2fM chars/s",
+                    documents, timeouts, sourceChars, nanos / 1e6, getDocumentsPerSecond(),
+                    getSourceCharsPerSecond() / 1e6);
+        }
+    }
+
+    /**
+     * The HTML and throughput of a batch rendering.
+     */
+    public static class BatchResult extends BatchStatistics {
+        private final List<String> html;
+
+        BatchResult(BatchStatistics statistics, List<String> html) {
+            super(statistics);
+            this.html = html;
+        }
+
+        /**
+         * @return the HTML of the documents in the order of their sources, null for the documents that could not be
+         * parsed within the parsing timeout
+         */
+        public List<String> getHtml() {
+            return html;
+        }
+    }
+
+    private class AsyncRendering implements Callable<String> {
+        private final CharSequence source;
+        private final FutureTask<String> future = new FutureTask<String>(this);
+        // polls the future rather than being cancelled by it, so no hook into FutureTask.cancel is required
+        private final CancellationToken cancellationToken = new CancellationToken() {
+            @Override
+            public boolean isCancelled() {
+                return future.isCancelled();
+            }
+        };
+
+        AsyncRendering(CharSequence source) {
+            this.source = source;
+        }
+
+        public String call() throws InterruptedException {
+            asyncPermits.acquire();
+            try {
+                return markdownToHtml(source, cancellationToken);
+            } finally {
+                asyncPermits.release();
+            }
+        }
+    }
+
+    private class Rendering implements Callable<String> {
+        private final CharSequence source;
+        private Future<String> result;
+
+        Rendering(CharSequence source) {
+            this.source = source;
+        }
+
+        public String call() {
+            return markdownToHtml(source);
+        }
+
+        String getHtml() throws InterruptedException {
+            try {
+                return result.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                if (cause instanceof Error) throw (Error) cause;
+                throw new RuntimeException(cause);
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+
+/**
+ * The CPU time and heap allocation a single document cost the processing thread, split into parsing (including the
+ * source preparation) and serialization, as measured with the ThreadMXBean of the JVM.
+ * Values the JVM cannot measure are reported as {@link #UNSUPPORTED}: thread CPU time may be unsupported or disabled,
+ * allocation measurement requires a HotSpot-based JVM (com.sun.management.ThreadMXBean).
+ *
+ * @see PegDownProcessor#measuredMarkdownToHtml(char[], LinkRenderer, java.util.Map)
+ */
+public class ProcessingCost {
+    public static final long UNSUPPORTED = -1;
+
+    private static final ThreadMXBean THREAD_BEAN = ManagementFactory.getThreadMXBean();
+    private static final Method GET_THREAD_ALLOCATED_BYTES = threadAllocatedBytesMethod();
+
+    private final long parseCpuNanos;
+    private final long parseAllocatedBytes;
+    private final long serializeCpuNanos;
+    private final long serializeAllocatedBytes;
+
+    public ProcessingCost(long parseCpuNanos, long parseAllocatedBytes, long serializeCpuNanos,
+                          long serializeAllocatedBytes) {
+        this.parseCpuNanos = parseCpuNanos;
+        this.parseAllocatedBytes = parseAllocatedBytes;
+        this.serializeCpuNanos = serializeCpuNanos;
+        this.serializeAllocatedBytes = serializeAllocatedBytes;
+    }
+
+    public long getParseCpuNanos() {
+        return parseCpuNanos;
+    }
+
+    public long getParseAllocatedBytes() {
+        return parseAllocatedBytes;
+    }
+
+    public long getSerializeCpuNanos() {
+        return serializeCpuNanos;
+    }
+
+    public long getSerializeAllocatedBytes() {
+        return serializeAllocatedBytes;
+    }
+
+    public long getCpuNanos() {
+        return sum(parseCpuNanos, serializeCpuNanos);
+    }
+
+    public long getAllocatedBytes() {
+        return sum(parseAllocatedBytes, serializeAllocatedBytes);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ProcessingCost[parse: %sns cpu, %s bytes; serialize: %sns cpu, %s bytes]",
+                parseCpuNanos, parseAllocatedBytes, serializeCpuNanos, serializeAllocatedBytes);
+    }
+
+    private static long sum(long a, long b) {
+        return a == UNSUPPORTED || b == UNSUPPORTED ? UNSUPPORTED : a + b;
+    }
+
+    private static Method threadAllocatedBytesMethod() {
+        try {
+            Class<?> beanClass = Class.forName("com.sun.management.ThreadMXBean");
+            if (!beanClass.isInstance(THREAD_BEAN)) return null;
+            Method method = beanClass.getMethod("getThreadAllocatedBytes", long.class);
+            method.invoke(THREAD_BEAN, Thread.currentThread().getId()); // fail early if not usable
+            return method;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    static long currentThreadCpuNanos() {
+        return THREAD_BEAN.isCurrentThreadCpuTimeSupported() ? THREAD_BEAN.getCurrentThreadCpuTime() : UNSUPPORTED;
+    }
+
+    static long currentThreadAllocatedBytes() {
+        if (GET_THREAD_ALLOCATED_BYTES == null) return UNSUPPORTED;
+        try {
+            return (Long) GET_THREAD_ALLOCATED_BYTES.invoke(THREAD_BEAN, Thread.currentThread().getId());
+        } catch (Exception e) {
+            return UNSUPPORTED;
+        }
+    }
+
+    /**
+     * Accumulates the cost of the phases of one document on the processing thread.
+     */
+    static class Meter {
+        private long startCpuNanos;
+        private long startAllocatedBytes;
+        private long parseCpuNanos;
+        private long parseAllocatedBytes;
+        private long serializeCpuNanos;
+        private long serializeAllocatedBytes;
+
+        void start() {
+            startCpuNanos = currentThreadCpuNanos();
+            startAllocatedBytes = currentThreadAllocatedBytes();
+        }
+
+        void parsed() {
+            parseCpuNanos = add(parseCpuNanos, startCpuNanos, currentThreadCpuNanos());
+            parseAllocatedBytes = add(parseAllocatedBytes, startAllocatedBytes, currentThreadAllocatedBytes());
+        }
+
+        void serialized() {
+            serializeCpuNanos = add(serializeCpuNanos, startCpuNanos, currentThreadCpuNanos());
+            serializeAllocatedBytes = add(serializeAllocatedBytes, startAllocatedBytes, currentThreadAllocatedBytes());
+        }
+
+        ProcessingCost toCost() {
+            return new ProcessingCost(parseCpuNanos, parseAllocatedBytes, serializeCpuNanos, serializeAllocatedBytes);
+        }
+
+        private static long add(long total, long start, long end) {
+            return total == UNSUPPORTED || start == UNSUPPORTED || end == UNSUPPORTED ? UNSUPPORTED : total + end - start;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown;
+
+import org.pegdown.ast.Node;
+
+import java.util.Map;
+
+/**
+ * Receives timings and sizes of the individual processing phases of a {@link PegDownProcessor}, e.g. for feeding
+ * them into a metrics system. All methods do nothing by default, so implementations only override what they need.
+ * The listener is called synchronously on the processing thread, so implementations should be quick and must be
+ * thread-safe if shared across several processors.
+ * All durations are given in nanoseconds.
+ */
+public abstract class ProcessingListener {
+
+    /**
+     * The listener used if none is given, which ignores all events.
+     */
+    public static final ProcessingListener NONE = new ProcessingListener() {};
+
+    /**
+     * Called before {@link PegDownProcessor#prepareSource(char[])} (or before wrapping the source in an input buffer),
+     * followed by {@link #sourcePrepared(int, long)}.
+     *
+     * @param sourceLength the length of the markdown source, in bytes for UTF-8 encoded sources
+     */
+    public void sourcePreparationStarted(int sourceLength) {}
+
+    /**
+     * Called after {@link PegDownProcessor#prepareSource(char[])}.
+     *
+     * @param sourceLength the length of the markdown source
+     * @param nanos the duration
+     */
+    public void sourcePrepared(int sourceLength, long nanos) {}
+
+    /**
+     * Called before each parse. A successful parse is followed by {@link #parsed(int, int, long)} with the same depth,
+     * a parse of a document hitting the parsing timeout by {@link #parsingTimedOut(int, long)}. Parses failing in other
+     * ways (e.g. cancelled ones) and their nested parses are not followed by any call.
+     *
+     * @param depth the nesting depth of the parse
+     * @param inputLength the length of the input to parse
+     */
+    public void parseStarted(int depth, int inputLength) {}
+
+    /**
+     * Called after each successful parse. The parse of the complete document has depth 0 and its duration includes
+     * all nested parses (of list items and blockquotes), which are reported before it with depths of 1 and more.
+     *
+     * @param depth the nesting depth of the parse
+     * @param inputLength the length of the parsed input
+     * @param nanos the duration
+     */
+    public void parsed(int depth, int inputLength, long nanos) {}
+
+    /**
+     * Called when parsing a document hit the parsing timeout.
+     *
+     * @param inputLength the length of the (prepared) input
+     * @param nanos the time spent until the timeout was detected
+     */
+    public void parsingTimedOut(int inputLength, long nanos) {}
+
+    /**
+     * Determines whether {@link #nodesCounted(Map)} is called, since counting requires an extra traversal of the AST.
+     *
+     * @return true if the nodes of each AST should be counted
+     */
+    public boolean isCountingNodes() {
+        return false;
+    }
+
+    /**
+     * Called after each successfully parsed document if {@link #isCountingNodes()} returns true.
+     *
+     * @param counts the number of nodes in the AST per node class
+     */
+    public void nodesCounted(Map<Class<? extends Node>, Integer> counts) {}
+
+    /**
+     * Called before the HTML of a document is generated, followed by {@link #serialized(int, long)} unless the
+     * serialization fails. When rendering block by block the parse of the document runs in between.
+     */
+    public void serializationStarted() {}
+
+    /**
+     * Called after the HTML of a document has been generated.
+     *
+     * @param htmlLength the length of the generated HTML
+     * @param nanos the duration
+     */
+    public void serialized(int htmlLength, long nanos) {}
+}
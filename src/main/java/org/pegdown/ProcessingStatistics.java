@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A ProcessingListener gathering the statistics of all processors it is installed on, which can be exposed as an
+ * MBean for monitoring with standard JMX tools (like JConsole or VisualVM).
+ * Parse times are the times of complete documents (including their nested parses), documents served from a
+ * RenderCache are only counted in the hit rate of the cache.
+ * The statistics of the processors of a PegDownProcessorPool additionally report the utilization of the pool, once it
+ * has been attached with {@link #setPool(PegDownProcessorPool)}.
+ *
+ * Usage:
+ * <pre>
+ * ProcessingStatistics statistics = new ProcessingStatistics(renderCache, null);
+ * statistics.register("comments");
+ * PegDownProcessor processor = new PegDownProcessor(parser, renderCache, null, statistics);
+ * </pre>
+ */
+public class ProcessingStatistics extends ProcessingListener implements ProcessingStatisticsMBean {
+
+    private final RenderCache renderCache;
+    private final RenderCache blockCache;
+    private final AtomicLong documents = new AtomicLong();
+    private final AtomicLong sourceChars = new AtomicLong();
+    private final AtomicLong htmlChars = new AtomicLong();
+    private final AtomicLong parsingTimeouts = new AtomicLong();
+    private final LatencyHistogram parseTimes = new LatencyHistogram();
+    private final LatencyHistogram serializeTimes = new LatencyHistogram();
+    private volatile PegDownProcessorPool pool;
+    private ObjectName objectName;
+
+    public ProcessingStatistics() {
+        this(null, null);
+    }
+
+    /**
+     * @param renderCache the cache for complete markdownToHtml results of the processors, or null
+     * @param blockCache the cache for the HTML of top-level blocks of the processors, or null
+     */
+    public ProcessingStatistics(RenderCache renderCache, RenderCache blockCache) {
+        this.renderCache = renderCache;
+        this.blockCache = blockCache;
+    }
+
+    /**
+     * Registers these statistics with the platform MBean server under the name
+     * "org.pegdown:type=ProcessingStatistics,name=[name]".
+     *
+     * @param name the name of the processor (or group of processors) these statistics belong to
+     * @return this
+     */
+    public synchronized ProcessingStatistics register(String name) {
+        try {
+            ObjectName objectName = new ObjectName("org.pegdown:type=ProcessingStatistics,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            this.objectName = objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+        return this;
+    }
+
+    /**
+     * Removes these statistics from the platform MBean server, if they have been registered.
+     */
+    public synchronized void unregister() {
+        if (objectName == null) return;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(objectName)) server.unregisterMBean(objectName);
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+        objectName = null;
+    }
+
+    public synchronized ObjectName getObjectName() {
+        return objectName;
+    }
+
+    /**
+     * Attaches the pool whose processors report to these statistics, so that its utilization is exposed as well.
+     * The pool is given here rather than to the constructor since the pool's processors are usually created with
+     * these statistics as their listener.
+     *
+     * @param pool the pool, or null to detach the current one
+     * @return this
+     */
+    public ProcessingStatistics setPool(PegDownProcessorPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    public PegDownProcessorPool getPool() {
+        return pool;
+    }
+
+    @Override
+    public void sourcePrepared(int sourceLength, long nanos) {
+        sourceChars.addAndGet(sourceLength);
+    }
+
+    @Override
+    public void parsed(int depth, int inputLength, long nanos) {
+        if (depth == 0) {
+            documents.incrementAndGet();
+            parseTimes.record(nanos);
+        }
+    }
+
+    @Override
+    public void parsingTimedOut(int inputLength, long nanos) {
+        parsingTimeouts.incrementAndGet();
+    }
+
+    @Override
+    public void serialized(int htmlLength, long nanos) {
+        htmlChars.addAndGet(htmlLength);
+        serializeTimes.record(nanos);
+    }
+
+    public long getDocumentCount() {
+        return documents.get();
+    }
+
+    public long getSourceCharCount() {
+        return sourceChars.get();
+    }
+
+    public long getHtmlCharCount() {
+        return htmlChars.get();
+    }
+
+    public long getParsingTimeoutCount() {
+        return parsingTimeouts.get();
+    }
+
+    public double getParseTimeMedian() {
+        return millis(parseTimes.snapshot().getPercentile(0.5));
+    }
+
+    public double getParseTime99thPercentile() {
+        return millis(parseTimes.snapshot().getPercentile(0.99));
+    }
+
+    public double getParseTime999thPercentile() {
+        return millis(parseTimes.snapshot().getPercentile(0.999));
+    }
+
+    public double getParseTimeMax() {
+        return millis(parseTimes.snapshot().getMax());
+    }
+
+    public double getSerializeTimeMedian() {
+        return millis(serializeTimes.snapshot().getPercentile(0.5));
+    }
+
+    public double getSerializeTime99thPercentile() {
+        return millis(serializeTimes.snapshot().getPercentile(0.99));
+    }
+
+    public double getSerializeTime999thPercentile() {
+        return millis(serializeTimes.snapshot().getPercentile(0.999));
+    }
+
+    public double getSerializeTimeMax() {
+        return millis(serializeTimes.snapshot().getMax());
+    }
+
+    /**
+     * @return the histogram of the parse times of complete documents in nanoseconds
+     */
+    public LatencyHistogram getParseTimes() {
+        return parseTimes;
+    }
+
+    /**
+     * @return the histogram of the serialization times in nanoseconds
+     */
+    public LatencyHistogram getSerializeTimes() {
+        return serializeTimes;
+    }
+
+    public double getRenderCacheHitRate() {
+        return renderCache != null ? renderCache.getHitRate() : 0.0;
+    }
+
+    public double getBlockCacheHitRate() {
+        return blockCache != null ? blockCache.getHitRate() : 0.0;
+    }
+
+    public int getPoolProcessorCount() {
+        PegDownProcessorPool pool = this.pool;
+        return pool != null ? pool.getProcessorCount() : 0;
+    }
+
+    public int getPoolBorrowedCount() {
+        PegDownProcessorPool pool = this.pool;
+        return pool != null ? pool.getBorrowedCount() : 0;
+    }
+
+    public int getPoolIdleCount() {
+        PegDownProcessorPool pool = this.pool;
+        return pool != null ? pool.getIdleCount() : 0;
+    }
+
+    public int getPoolAsyncRenderingCount() {
+        PegDownProcessorPool pool = this.pool;
+        return pool != null ? pool.getAsyncRenderingCount() : 0;
+    }
+
+    /**
+     * Resets all counters and latencies (but not the statistics of the caches or the utilization of the pool).
+     */
+    public void reset() {
+        documents.set(0);
+        sourceChars.set(0);
+        htmlChars.set(0);
+        parsingTimeouts.set(0);
+        parseTimes.reset();
+        serializeTimes.reset();
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ProcessingStatistics[documents=%s, timeouts=%s, parse median/p99=%.3f/%.3fms, " +
+                "serialize median/p99=%.3f/%.3fms]", getDocumentCount(), getParsingTimeoutCount(),
+                getParseTimeMedian(), getParseTime99thPercentile(), getSerializeTimeMedian(),
+                getSerializeTime99thPercentile());
+    }
+}
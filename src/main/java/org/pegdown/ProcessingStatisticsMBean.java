@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown;
+
+/**
+ * The JMX management interface of {@link ProcessingStatistics}.
+ * All times are given in milliseconds, all sizes in characters. The pool attributes are the current number of
+ * processors created, borrowed and idle, and of asynchronous renderings running, or 0 if no pool is attached.
+ */
+public interface ProcessingStatisticsMBean {
+
+    long getDocumentCount();
+
+    long getSourceCharCount();
+
+    long getHtmlCharCount();
+
+    long getParsingTimeoutCount();
+
+    double getParseTimeMedian();
+
+    double getParseTime99thPercentile();
+
+    double getParseTime999thPercentile();
+
+    double getParseTimeMax();
+
+    double getSerializeTimeMedian();
+
+    double getSerializeTime99thPercentile();
+
+    double getSerializeTime999thPercentile();
+
+    double getSerializeTimeMax();
+
+    double getRenderCacheHitRate();
+
+    double getBlockCacheHitRate();
+
+    int getPoolProcessorCount();
+
+    int getPoolBorrowedCount();
+
+    int getPoolIdleCount();
+
+    int getPoolAsyncRenderingCount();
+
+    void reset();
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown;
+
+import org.parboiled.MatcherContext;
+import org.parboiled.Rule;
+import org.parboiled.buffers.InputBuffer;
+import org.parboiled.matchers.Matcher;
+import org.parboiled.parserunners.BasicParseRunner;
+import org.parboiled.parserunners.ParseRunner;
+import org.parboiled.support.ParsingResult;
+import org.pegdown.ast.Node;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A ParseRunnerProvider profiling every n-th document, which is cheap enough to be used in production.
+ * For every grammar rule (i.e. every rule method of the Parser) the number of invocations and matches as well as the
+ * time spent in the rule are aggregated across all profiled documents.
+ * The sampling decision is made per top-level parse and carried into the nested parses of its list items and
+ * blockquotes (which run on the same thread), so a document is either profiled completely or not at all.
+ * The self time of a rule excludes the time spent in other rules it invoked, including nested parses (but includes
+ * the time of the anonymous sub rules it is built from and of all actions).
+ *
+ * Usage: Parboiled.createParser(Parser.class, options, timeout, new ProfilingParseRunnerProvider(100))
+ * A provider can be shared across parsers (and threads).
+ */
+public class ProfilingParseRunnerProvider implements Parser.ParseRunnerProvider {
+
+    private final int sampleInterval;
+    private final AtomicLong parses = new AtomicLong();
+    private final Map<String, RuleStats> stats = new HashMap<String, RuleStats>();
+    private long profiledParses;
+    // the sampling decision of the top-level parse running on the current thread, null outside of parses
+    private final ThreadLocal<Boolean> sampled = new ThreadLocal<Boolean>();
+    // the innermost profiling runner running on the current thread, if any
+    private final ThreadLocal<Profiling<?>> activeRunner = new ThreadLocal<Profiling<?>>();
+
+    /**
+     * @param sampleInterval the n in "profile every n-th document", 1 profiles all documents
+     */
+    public ProfilingParseRunnerProvider(int sampleInterval) {
+        if (sampleInterval < 1) throw new IllegalArgumentException("sampleInterval must be positive");
+        this.sampleInterval = sampleInterval;
+    }
+
+    public ParseRunner<Node> get(Rule rule) {
+        Boolean decision = sampled.get();
+        if (decision == null) { // a top-level parse
+            return new SamplingRunner(rule, parses.incrementAndGet() % sampleInterval == 0, true);
+        }
+        return decision ? new SamplingRunner(rule, true, false) : new MemoMismatchesParseRunner<Node>(rule);
+    }
+
+    /**
+     * @return the total number of top-level parses (i.e. documents) run with runners from this provider
+     */
+    public long getParseCount() {
+        return parses.get();
+    }
+
+    /**
+     * @return the number of parses that have been profiled
+     */
+    public synchronized long getProfiledParseCount() {
+        return profiledParses;
+    }
+
+    /**
+     * Returns (copies of) the statistics of the rules with the highest self times.
+     *
+     * @param n the maximum number of rules to return
+     * @return the rule statistics, ordered by descending self time
+     */
+    public synchronized List<RuleStats> getTopRules(int n) {
+        List<RuleStats> list = new ArrayList<RuleStats>();
+        for (RuleStats ruleStats : stats.values()) list.add(new RuleStats(ruleStats));
+        Collections.sort(list, new Comparator<RuleStats>() {
+            public int compare(RuleStats a, RuleStats b) {
+                return a.selfNanos < b.selfNanos ? 1 : a.selfNanos > b.selfNanos ? -1 : a.label.compareTo(b.label);
+            }
+        });
+        return list.size() > n ? list.subList(0, n) : list;
+    }
+
+    /**
+     * Formats the statistics of the rules with the highest self times as a table.
+     *
+     * @param n the maximum number of rules to include
+     * @return the report
+     */
+    public String printReport(int n) {
+        List<RuleStats> topRules = getTopRules(n);
+        long totalSelfNanos = 0;
+        for (RuleStats ruleStats : getTopRules(Integer.MAX_VALUE)) totalSelfNanos += ruleStats.selfNanos;
+        StringBuilder sb = new StringBuilder()
+                .append("Profiled ").append(getProfiledParseCount()).append(" of ").append(getParseCount())
+                .append(" documents\n")
+                .append(String.format("%-30s %12s %8s %12s %7s %12s\n", "Rule", "Invocations", "Matched", "Self ms",
+                        "Self %", "Total ms"));
+        for (RuleStats ruleStats : topRules) {
+            sb.append(String.format("%-30s %12d %7.1f%% %12.3f %6.1f%% %12.3f\n", ruleStats.label,
+                    ruleStats.invocations, 100.0 * ruleStats.getMatchRatio(), ruleStats.selfNanos / 1e6,
+                    totalSelfNanos > 0 ? 100.0 * ruleStats.selfNanos / totalSelfNanos : 0.0,
+                    ruleStats.totalNanos / 1e6));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Discards all statistics gathered so far.
+     */
+    public synchronized void reset() {
+        stats.clear();
+        profiledParses = 0;
+    }
+
+    synchronized void merge(Map<Matcher, RuleStats> runStats, boolean topLevel) {
+        if (topLevel) profiledParses++;
+        for (RuleStats ruleStats : runStats.values()) {
+            RuleStats total = stats.get(ruleStats.label);
+            if (total == null) stats.put(ruleStats.label, new RuleStats(ruleStats));
+            else total.add(ruleStats);
+        }
+    }
+
+    /**
+     * The aggregated statistics of one grammar rule.
+     */
+    public static class RuleStats {
+        private final String label;
+        private long invocations;
+        private long matches;
+        private long selfNanos;
+        private long totalNanos;
+
+        RuleStats(String label) {
+            this.label = label;
+        }
+
+        RuleStats(RuleStats other) {
+            this(other.label);
+            add(other);
+        }
+
+        void add(RuleStats other) {
+            invocations += other.invocations;
+            matches += other.matches;
+            selfNanos += other.selfNanos;
+            totalNanos += other.totalNanos;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public long getInvocations() {
+            return invocations;
+        }
+
+        public long getMatches() {
+            return matches;
+        }
+
+        public long getMismatches() {
+            return invocations - matches;
+        }
+
+        public double getMatchRatio() {
+            return invocations > 0 ? (double) matches / invocations : 0.0;
+        }
+
+        /**
+         * @return the time spent in the rule excluding the time spent in other rules invoked by it
+         */
+        public long getSelfNanos() {
+            return selfNanos;
+        }
+
+        /**
+         * @return the time spent in the rule including the time spent in other rules invoked by it, for recursive
+         * rules the time of the recursive invocations is counted several times
+         */
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        @Override
+        public String toString() {
+            return label + ": " + invocations + " invocations, " + matches + " matches, " + selfNanos + "ns self, " +
+                    totalNanos + "ns total";
+        }
+    }
+
+    // makes (and for top-level parses publishes) the sampling decision
+    private class SamplingRunner extends MemoMismatchesParseRunner<Node> {
+        private final boolean profiled;
+        private final boolean topLevel;
+
+        SamplingRunner(Rule rule, boolean profiled, boolean topLevel) {
+            super(rule);
+            this.profiled = profiled;
+            this.topLevel = topLevel;
+        }
+
+        @Override
+        protected BasicParseRunner<Node> createBasicRunner(Rule rule) {
+            return profiled ? new Profiling<Node>(rule, topLevel) : super.createBasicRunner(rule);
+        }
+
+        @Override
+        public ParsingResult<Node> run(InputBuffer inputBuffer) {
+            if (!topLevel) return super.run(inputBuffer);
+            sampled.set(profiled);
+            try {
+                return super.run(inputBuffer);
+            } finally {
+                sampled.remove();
+            }
+        }
+    }
+
+    private class Profiling<V> extends MemoMismatchesParseRunner.Basic<V> {
+        private final Map<Matcher, RuleStats> runStats = new IdentityHashMap<Matcher, RuleStats>();
+        private final boolean topLevel;
+        private long childNanos;
+
+        Profiling(Rule rule, boolean topLevel) {
+            super(rule);
+            this.topLevel = topLevel;
+        }
+
+        @Override
+        public ParsingResult<V> run(InputBuffer inputBuffer) {
+            Profiling<?> outerRunner = activeRunner.get();
+            activeRunner.set(this);
+            long start = System.nanoTime();
+            try {
+                return super.run(inputBuffer);
+            } finally {
+                // a nested parse runs within a rule of the outer parse, whose self time must not include it
+                if (outerRunner != null) outerRunner.childNanos += System.nanoTime() - start;
+                if (outerRunner != null) activeRunner.set(outerRunner);
+                else activeRunner.remove();
+                merge(runStats, topLevel);
+            }
+        }
+
+        @Override
+        public boolean match(MatcherContext<?> context) {
+            Matcher matcher = context.getMatcher();
+            if (!matcher.hasCustomLabel()) return super.match(context); // anonymous sub rules count as their parent
+
+            long start = System.nanoTime();
+            long outerChildNanos = childNanos;
+            childNanos = 0;
+            boolean matched = super.match(context);
+            long nanos = System.nanoTime() - start;
+
+            RuleStats ruleStats = runStats.get(matcher);
+            if (ruleStats == null) {
+                ruleStats = new RuleStats(matcher.getLabel());
+                runStats.put(matcher, ruleStats);
+            }
+            ruleStats.invocations++;
+            if (matched) ruleStats.matches++;
+            ruleStats.selfNanos += nanos - childNanos;
+            ruleStats.totalNanos += nanos;
+            childNanos = outerChildNanos + nanos;
+            return matched;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe cache of rendered HTML keyed by a SHA-256 hash of the markdown source and the rendering
+ * configuration. The cache is bounded by the (approximate) number of bytes its entries occupy and evicts the least
+ * recently used entries first. Concurrent requests for the same key are coalesced, so that only one of them
+ * actually renders while the others wait for its result.
+ * A single RenderCache can be shared by all PegDownProcessor instances of an application.
+ *
+ * @see PegDownProcessor#PegDownProcessor(Parser, RenderCache)
+ */
+public class RenderCache {
+    // rough per-entry overhead of the map entry, the key string and the value string objects
+    private static final int ENTRY_OVERHEAD = 200;
+
+    private final long maxWeight;
+    private final LinkedHashMap<String, String> entries = new LinkedHashMap<String, String>(16, 0.75f, true);
+    private final ConcurrentMap<String, FutureTask<String>> inFlight = new ConcurrentHashMap<String, FutureTask<String>>();
+    private long weight;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * Creates a new cache holding at most the given number of bytes of rendered HTML (plus keys and overhead).
+     *
+     * @param maxWeightInBytes the size bound of the cache
+     */
+    public RenderCache(long maxWeightInBytes) {
+        this.maxWeight = maxWeightInBytes;
+    }
+
+    /**
+     * Returns the HTML cached for the given key or renders, caches and returns it, if it is not yet cached.
+     * If another thread is currently rendering the same key this method waits for its result instead of rendering
+     * a second time. Null results (i.e. parsing timeouts) are returned but not cached. If the rendering of the other
+     * thread is cancelled (i.e. throws a {@link ParsingCancelledException}) the waiting threads render again
+     * themselves, since the cancellation only applies to the thread that asked for it.
+     *
+     * @param key the cache key as created with {@link #createKey(char[], String)}
+     * @param renderer the rendering logic to run on a cache miss
+     * @return the HTML
+     */
+    public String get(String key, Callable<String> renderer) {
+        while (true) {
+            String html = lookup(key);
+            if (html != null) {
+                hitCount.incrementAndGet();
+                return html;
+            }
+            FutureTask<String> task = new FutureTask<String>(renderer);
+            FutureTask<String> running = inFlight.putIfAbsent(key, task);
+            if (running == null) {
+                missCount.incrementAndGet();
+                try {
+                    task.run();
+                    html = await(task);
+                    if (html != null) store(key, html);
+                    return html;
+                } finally {
+                    inFlight.remove(key, task);
+                }
+            }
+            try {
+                html = await(running);
+            } catch (ParsingCancelledException e) {
+                // the rendering thread may not have removed its task yet
+                inFlight.remove(key, running);
+                continue;
+            }
+            hitCount.incrementAndGet();
+            return html;
+        }
+    }
+
+    /**
+     * Removes all entries from the cache. The statistics are not reset.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            weight = 0;
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * @return the ratio of requests that were served without rendering, or 0 if there were no requests yet
+     */
+    public double getHitRate() {
+        long hits = hitCount.get();
+        long total = hits + missCount.get();
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    /**
+     * @return the number of cached entries
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return the approximate number of bytes occupied by the cached entries
+     */
+    public long getWeight() {
+        synchronized (entries) {
+            return weight;
+        }
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RenderCache[entries=%s, weight=%s/%s, hits=%s, misses=%s, evictions=%s]",
+                size(), getWeight(), maxWeight, getHitCount(), getMissCount(), getEvictionCount());
+    }
+
+    /**
+     * Creates a cache key from the given markdown source and a description of everything else influencing the
+     * rendering result (like extension options, plugins and renderers).
+     *
+     * @param source the markdown source
+     * @param context the description of the rendering configuration
+     * @return the key as a hex string of the SHA-256 hash
+     */
+    public static String createKey(char[] source, String context) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[4096];
+        update(digest, buffer, context.toCharArray());
+        digest.update((byte) 0);
+        update(digest, buffer, source);
+
+        StringBuilder sb = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    private static void update(MessageDigest digest, byte[] buffer, char[] chars) {
+        int pos = 0;
+        for (char c : chars) {
+            if (pos == buffer.length) {
+                digest.update(buffer, 0, pos);
+                pos = 0;
+            }
+            buffer[pos++] = (byte) (c >> 8);
+            buffer[pos++] = (byte) c;
+        }
+        digest.update(buffer, 0, pos);
+    }
+
+    private String lookup(String key) {
+        synchronized (entries) {
+            return entries.get(key);
+        }
+    }
+
+    private void store(String key, String html) {
+        long entryWeight = weigh(key, html);
+        if (entryWeight > maxWeight) return;
+        synchronized (entries) {
+            String prior = entries.put(key, html);
+            if (prior != null) weight -= weigh(key, prior);
+            weight += entryWeight;
+            Iterator<Map.Entry<String, String>> it = entries.entrySet().iterator();
+            while (weight > maxWeight && it.hasNext()) {
+                Map.Entry<String, String> eldest = it.next();
+                weight -= weigh(eldest.getKey(), eldest.getValue());
+                it.remove();
+                evictionCount.incrementAndGet();
+            }
+        }
+    }
+
+    private static long weigh(String key, String html) {
+        return 2L * (key.length() + html.length()) + ENTRY_OVERHEAD;
+    }
+
+    private static String await(FutureTask<String> task) {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new RuntimeException(cause);
+        }
+    }
+}
@@ -21,12 +21,17 @@ package org.pegdown;
 import org.parboiled.common.StringUtils;
 import org.pegdown.ast.*;
 import org.pegdown.plugins.ToHtmlSerializerPlugin;
+import org.pegdown.plugins.TypedToHtmlSerializerPlugin;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
 
 import static org.parboiled.common.Preconditions.checkArgNotNull;
 
@@ -37,6 +42,8 @@ public class ToHtmlSerializer implements Visitor {
     protected final Map<String, String> abbreviations = new HashMap<String, String>();
     protected final LinkRenderer linkRenderer;
     protected final List<ToHtmlSerializerPlugin> plugins;
+    protected final Map<Class<?>, ToHtmlSerializerPlugin[]> pluginsByNodeClass =
+            new HashMap<Class<?>, ToHtmlSerializerPlugin[]>();
 
     protected TableNode currentTableNode;
     protected int currentTableColumn;
@@ -44,6 +51,12 @@ public class ToHtmlSerializer implements Visitor {
 
     protected Map<String, VerbatimSerializer> verbatimSerializers;
 
+    protected RenderCache blockCache;
+    protected char[] blockCacheSource;
+    protected String blockCacheContext;
+    protected RootNode documentRoot;
+    protected boolean blocksSerialized;
+
     public ToHtmlSerializer(LinkRenderer linkRenderer) {
         this(linkRenderer, Collections.<ToHtmlSerializerPlugin>emptyList());
     }
@@ -67,17 +80,98 @@ public class ToHtmlSerializer implements Visitor {
         this.plugins = plugins;
     }
 
+    /**
+     * Enables caching of the HTML of the top-level blocks of the document in the given cache.
+     * Blocks are keyed by their source text, the given context and the references and abbreviations they depend on,
+     * so the cached HTML is shared across all documents containing the same blocks.
+     *
+     * @param cache the cache to use
+     * @param source the (prepared) markdown source the AST to serialize was parsed from
+     * @param context the description of everything besides the source influencing the HTML of a block
+     * @return this serializer
+     */
+    public ToHtmlSerializer useBlockCache(RenderCache cache, char[] source, String context) {
+        this.blockCache = cache;
+        this.blockCacheSource = source;
+        this.blockCacheContext = context;
+        return this;
+    }
+
     public String toHtml(RootNode astRoot) {
         checkArgNotNull(astRoot, "astRoot");
+        documentRoot = astRoot;
         astRoot.accept(this);
         return printer.getString();
     }
-    
+
+    /**
+     * Serializes the AST of an inline-only parse (see {@link Parser#parseInlines(char[])}) without any block
+     * wrappers, joining the inlines of its paragraphs with newlines.
+     *
+     * @param astRoot the AST root
+     * @return the HTML
+     */
+    public String inlinesToHtml(RootNode astRoot) {
+        checkArgNotNull(astRoot, "astRoot");
+        documentRoot = astRoot;
+        boolean first = true;
+        for (Node child : astRoot.getChildren()) {
+            if (!first) printer.print('\n');
+            first = false;
+            child.accept(this);
+        }
+        return printer.getString();
+    }
+
+    /**
+     * Registers the references and abbreviations of a document, whose top-level blocks are then serialized one by one
+     * with {@link #blockToHtml(Node)}.
+     *
+     * @param definitions a RootNode carrying the references and abbreviations of the document
+     * @return this serializer
+     */
+    public ToHtmlSerializer useDefinitions(RootNode definitions) {
+        checkArgNotNull(definitions, "definitions");
+        registerDefinitions(definitions);
+        return this;
+    }
+
+    /**
+     * Serializes the next top-level block of a document. Concatenating the HTML of all blocks gives the same result as
+     * {@link #toHtml(RootNode)} for the complete document.
+     *
+     * @param block the top-level block
+     * @return the HTML of the block
+     */
+    public String blockToHtml(Node block) {
+        checkArgNotNull(block, "block");
+        boolean first = !blocksSerialized;
+        blocksSerialized = true;
+        // render as if following other output, so the block is separated from the HTML of the prior blocks
+        if (!first) printer.print('\n');
+        if (blockCache != null) visitCached(block);
+        else block.accept(this);
+        String html = first ? printer.getString() : printer.sb.substring(1);
+        printer.clear();
+        return html;
+    }
+
     public void visit(RootNode node) {
+        registerDefinitions(node);
+        if (blockCache != null && node == documentRoot) {
+            for (Node child : node.getChildren()) {
+                visitCached(child);
+            }
+        } else visitChildren(node);
+    }
+
+    protected void registerDefinitions(RootNode node) {
         for (ReferenceNode refNode : node.getReferences()) {
-            visitChildren(refNode);
-            references.put(normalize(printer.getString()), refNode);
-            printer.clear();
+            if (refNode.getKey() != null) {
+                references.put(refNode.getKey(), refNode);
+            } else { // reference node not created by the parser, so we need to derive the key from its rendering
+                references.put(normalize(printChildrenToString(refNode)), refNode);
+            }
         }
         for (AbbreviationNode abbrNode : node.getAbbreviations()) {
             visitChildren(abbrNode);
@@ -88,7 +182,6 @@ public class ToHtmlSerializer implements Visitor {
             abbreviations.put(abbr, expansion);
             printer.clear();
         }
-        visitChildren(node);
     }
 
     public void visit(AbbreviationNode node) {
@@ -189,13 +282,12 @@ public class ToHtmlSerializer implements Visitor {
 
     public void visit(RefImageNode node) {
         String text = printChildrenToString(node);
-        String key = node.referenceKey != null ? printChildrenToString(node.referenceKey) : text;
-        ReferenceNode refNode = references.get(normalize(key));
+        ReferenceNode refNode = lookupReference(node.getReference(), node.getKey(), node.referenceKey, text);
         if (refNode == null) { // "fake" reference image link
             printer.print("![").print(text).print(']');
             if (node.separatorSpace != null) {
                 printer.print(node.separatorSpace).print('[');
-                if (node.referenceKey != null) printer.print(key);
+                if (node.referenceKey != null) printer.print(printChildrenToString(node.referenceKey));
                 printer.print(']');
             }
         } else printImageTag(linkRenderer.render(node, refNode.getUrl(), refNode.getTitle(), text));
@@ -203,18 +295,24 @@ public class ToHtmlSerializer implements Visitor {
 
     public void visit(RefLinkNode node) {
         String text = printChildrenToString(node);
-        String key = node.referenceKey != null ? printChildrenToString(node.referenceKey) : text;
-        ReferenceNode refNode = references.get(normalize(key));
+        ReferenceNode refNode = lookupReference(node.getReference(), node.getKey(), node.referenceKey, text);
         if (refNode == null) { // "fake" reference link
             printer.print('[').print(text).print(']');
             if (node.separatorSpace != null) {
                 printer.print(node.separatorSpace).print('[');
-                if (node.referenceKey != null) printer.print(key);
+                if (node.referenceKey != null) printer.print(printChildrenToString(node.referenceKey));
                 printer.print(']');
             }
         } else printLink(linkRenderer.render(node, refNode.getUrl(), refNode.getTitle(), text));
     }
 
+    private ReferenceNode lookupReference(ReferenceNode boundRefNode, String key, SuperNode referenceKey, String text) {
+        if (boundRefNode != null) return boundRefNode;
+        if (key != null) return references.get(key);
+        // node not created by the parser, so we need to derive the key from its rendering
+        return references.get(normalize(referenceKey != null ? printChildrenToString(referenceKey) : text));
+    }
+
     public void visit(SimpleNode node) {
         switch (node.getType()) {
             case Apostrophe:
@@ -354,7 +452,7 @@ public class ToHtmlSerializer implements Visitor {
     }
 
     public void visit(Node node) {
-        for (ToHtmlSerializerPlugin plugin : plugins) {
+        for (ToHtmlSerializerPlugin plugin : lookupPlugins(node.getClass())) {
             if (plugin.visit(node, this, printer)) {
                 return;
             }
@@ -363,8 +461,109 @@ public class ToHtmlSerializer implements Visitor {
         throw new RuntimeException("Don't know how to handle node " + node);
     }
 
+    // returns the plugins that might handle nodes of the given class, in registration order
+    private ToHtmlSerializerPlugin[] lookupPlugins(Class<?> nodeClass) {
+        ToHtmlSerializerPlugin[] candidates = pluginsByNodeClass.get(nodeClass);
+        if (candidates == null) {
+            List<ToHtmlSerializerPlugin> list = new ArrayList<ToHtmlSerializerPlugin>();
+            for (ToHtmlSerializerPlugin plugin : plugins) {
+                if (handlesNodeClass(plugin, nodeClass)) list.add(plugin);
+            }
+            candidates = list.toArray(new ToHtmlSerializerPlugin[list.size()]);
+            pluginsByNodeClass.put(nodeClass, candidates);
+        }
+        return candidates;
+    }
+
+    private static boolean handlesNodeClass(ToHtmlSerializerPlugin plugin, Class<?> nodeClass) {
+        if (!(plugin instanceof TypedToHtmlSerializerPlugin)) return true; // undeclared plugins might handle any node
+        for (Class<?> declared : ((TypedToHtmlSerializerPlugin) plugin).nodeClasses()) {
+            if (declared.isAssignableFrom(nodeClass)) return true;
+        }
+        return false;
+    }
+
     // helpers
 
+    protected void visitCached(final Node block) {
+        int start = block.getStartIndex();
+        int end = block.getEndIndex();
+        String dependencies = end > start && end <= blockCacheSource.length ? blockDependencies(block) : null;
+        if (dependencies == null) { // we cannot safely cache this block
+            block.accept(this);
+            return;
+        }
+        char[] blockSource = new char[end - start];
+        System.arraycopy(blockCacheSource, start, blockSource, 0, blockSource.length);
+        String html = blockCache.get(RenderCache.createKey(blockSource, blockCacheContext + dependencies),
+                new Callable<String>() {
+                    public String call() {
+                        // render as if following other output, so the HTML fits everywhere except at the very start
+                        Printer priorPrinter = printer;
+                        printer = new Printer(new StringBuilder().append('\n'));
+                        try {
+                            block.accept(ToHtmlSerializer.this);
+                            return printer.sb.substring(1);
+                        } finally {
+                            printer = priorPrinter;
+                        }
+                    }
+                });
+        if (printer.sb.length() == 0 && html.startsWith("\n")) {
+            printer.print(html.substring(1));
+        } else printer.print(html);
+    }
+
+    // describes the document-level definitions the HTML of the given block depends on or returns null if unknown
+    private String blockDependencies(Node block) {
+        StringBuilder sb = new StringBuilder();
+        if (!abbreviations.isEmpty()) {
+            // any abbreviation changes the encoding of all text, but only the ones occurring in the block are expanded
+            sb.append(";abbrs");
+            Set<String> used = new TreeSet<String>();
+            collectAbbreviations(block, used);
+            for (String abbr : used) {
+                sb.append(";abbr:").append(abbr).append('=').append(abbreviations.get(abbr));
+            }
+        }
+        return appendReferenceDependencies(block, sb) ? sb.toString() : null;
+    }
+
+    private void collectAbbreviations(Node node, Set<String> used) {
+        if (node instanceof TextNode) {
+            String text = ((TextNode) node).getText();
+            for (String abbr : abbreviations.keySet()) {
+                if (text.contains(abbr)) used.add(abbr);
+            }
+        }
+        for (Node child : node.getChildren()) {
+            collectAbbreviations(child, used);
+        }
+    }
+
+    private boolean appendReferenceDependencies(Node node, StringBuilder sb) {
+        ReferenceNode refNode = null;
+        String key = null;
+        if (node instanceof RefLinkNode) {
+            refNode = ((RefLinkNode) node).getReference();
+            key = ((RefLinkNode) node).getKey();
+            if (key == null) return false;
+        } else if (node instanceof RefImageNode) {
+            refNode = ((RefImageNode) node).getReference();
+            key = ((RefImageNode) node).getKey();
+            if (key == null) return false;
+        }
+        if (key != null) {
+            if (refNode == null) refNode = references.get(key);
+            sb.append(";ref:").append(key);
+            if (refNode != null) sb.append('=').append(refNode.getUrl()).append(' ').append(refNode.getTitle());
+        }
+        for (Node child : node.getChildren()) {
+            if (!appendReferenceDependencies(child, sb)) return false;
+        }
+        return true;
+    }
+
     protected void visitChildren(SuperNode node) {
         for (Node child : node.getChildren()) {
             child.accept(this);
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link CharSequenceInputBuffer} over UTF-8 encoded bytes (e.g. a memory-mapped file), which decodes the bytes
+ * lazily instead of converting them into chars upfront.
+ * The bytes are only scanned once on construction, which determines the number of chars and the byte offset of
+ * every chunk of 4096 chars. Chunks consisting of ASCII characters only are read directly from the bytes, all others
+ * are decoded on demand into a small cache, so the memory required on the heap is a small fraction of the input size.
+ * Malformed input is decoded as U+FFFD, one replacement character per maximal malformed subsequence (like the JDK's
+ * UTF-8 decoder does).
+ * Since chunks are decoded into a cache, a Utf8InputBuffer must not be used by several threads concurrently.
+ */
+public class Utf8InputBuffer extends CharSequenceInputBuffer {
+
+    /**
+     * Creates a buffer over the remaining bytes of the given ByteBuffer, which must not be modified afterwards.
+     *
+     * @param bytes the UTF-8 encoded markdown source
+     */
+    public Utf8InputBuffer(ByteBuffer bytes) {
+        super(new Utf8Chars(bytes));
+    }
+
+    /**
+     * @return true if the input only consists of ASCII characters
+     */
+    public boolean isAscii() {
+        return ((Utf8Chars) getChars()).ascii;
+    }
+
+    static class Utf8Chars implements CharSequence {
+        private static final int CHUNK_SHIFT = 12;
+        private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+        private static final int CACHE_SLOTS = 8;
+        private static final char REPLACEMENT = '\uFFFD';
+
+        private final ByteBuffer bytes;
+        private final byte[] array; // the backing array of the bytes, if accessible
+        private final int arrayOffset;
+        private final int start;
+        private final int end;
+        private final int length;
+        private final boolean ascii;
+        private int[] chunkOffsets = new int[16]; // the byte offset of the code point containing the first char
+        private boolean[] chunkAscii = new boolean[16];
+        private boolean[] chunkStartsMidPair = new boolean[16]; // the first char is the low surrogate of a pair
+        private final int[] cachedChunks = new int[CACHE_SLOTS];
+        private final char[][] cachedChars = new char[CACHE_SLOTS][];
+
+        // the result of the last call to decode
+        private int codePoint;
+        private int codePointBytes;
+
+        Utf8Chars(ByteBuffer bytes) {
+            this.bytes = bytes;
+            this.array = bytes.hasArray() ? bytes.array() : null;
+            this.arrayOffset = bytes.hasArray() ? bytes.arrayOffset() : 0;
+            this.start = bytes.position();
+            this.end = bytes.limit();
+
+            int chars = 0;
+            int chunks = 0;
+            boolean allAscii = true;
+            for (int pos = start; pos < end; pos += codePointBytes) {
+                decode(pos);
+                int charCount = codePoint >= 0x10000 ? 2 : 1;
+                while (chunks << CHUNK_SHIFT < chars + charCount) { // a chunk starts within this code point
+                    if (chunks == chunkOffsets.length) growChunks();
+                    chunkOffsets[chunks] = pos;
+                    chunkAscii[chunks] = true;
+                    chunkStartsMidPair[chunks] = chunks << CHUNK_SHIFT != chars;
+                    chunks++;
+                }
+                if (codePoint >= 0x80 || codePointBytes > 1) {
+                    allAscii = false;
+                    chunkAscii[chars >> CHUNK_SHIFT] = false;
+                    chunkAscii[(chars + charCount - 1) >> CHUNK_SHIFT] = false;
+                }
+                chars += charCount;
+            }
+            this.length = chars;
+            this.ascii = allAscii;
+            for (int i = 0; i < CACHE_SLOTS; i++) cachedChunks[i] = -1;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        public char charAt(int index) {
+            if (index < 0 || index >= length) throw new IndexOutOfBoundsException(String.valueOf(index));
+            int chunk = index >> CHUNK_SHIFT;
+            if (chunkAscii[chunk]) {
+                int pos = chunkOffsets[chunk] + (index & (CHUNK_SIZE - 1));
+                return (char) (array != null ? array[arrayOffset + pos] : bytes.get(pos));
+            }
+            int slot = chunk & (CACHE_SLOTS - 1);
+            if (cachedChunks[slot] != chunk) {
+                cachedChars[slot] = decodeChunk(chunk, cachedChars[slot]);
+                cachedChunks[slot] = chunk;
+            }
+            return cachedChars[slot][index & (CHUNK_SIZE - 1)];
+        }
+
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > length || start > end) {
+                throw new IndexOutOfBoundsException(start + ".." + end);
+            }
+            StringBuilder sb = new StringBuilder(end - start);
+            for (int i = start; i < end; i++) sb.append(charAt(i));
+            return sb.toString();
+        }
+
+        @Override
+        public String toString() {
+            return subSequence(0, length).toString();
+        }
+
+        private char[] decodeChunk(int chunk, char[] chars) {
+            if (chars == null) chars = new char[CHUNK_SIZE];
+            int count = Math.min(CHUNK_SIZE, length - (chunk << CHUNK_SHIFT));
+            int pos = chunkOffsets[chunk];
+            int i = 0;
+            if (chunkStartsMidPair[chunk]) {
+                decode(pos);
+                pos += codePointBytes;
+                chars[i++] = Character.toChars(codePoint)[1];
+            }
+            while (i < count) {
+                decode(pos);
+                pos += codePointBytes;
+                if (codePoint >= 0x10000) {
+                    chars[i++] = (char) ((codePoint >>> 10) + (Character.MIN_HIGH_SURROGATE - (0x10000 >>> 10)));
+                    if (i < count) chars[i++] = (char) ((codePoint & 0x3FF) + Character.MIN_LOW_SURROGATE);
+                } else chars[i++] = (char) codePoint;
+            }
+            return chars;
+        }
+
+        // decodes the code point at the given byte offset into codePoint and codePointBytes
+        private void decode(int pos) {
+            int b0 = bytes.get(pos) & 0xFF;
+            if (b0 < 0x80) {
+                set(b0, 1);
+            } else if (b0 >= 0xC2 && b0 <= 0xDF) {
+                int b1 = continuation(pos + 1, 0x80, 0xBF);
+                if (b1 < 0) set(REPLACEMENT, 1);
+                else set(((b0 & 0x1F) << 6) | (b1 & 0x3F), 2);
+            } else if (b0 >= 0xE0 && b0 <= 0xEF) {
+                int b1 = continuation(pos + 1, b0 == 0xE0 ? 0xA0 : 0x80, b0 == 0xED ? 0x9F : 0xBF);
+                int b2 = b1 < 0 ? -1 : continuation(pos + 2, 0x80, 0xBF);
+                if (b1 < 0 && b0 == 0xED && continuation(pos + 1, 0xA0, 0xBF) >= 0) {
+                    // an encoded surrogate, which the JDK decoder replaces as one unit
+                    set(REPLACEMENT, continuation(pos + 2, 0x80, 0xBF) < 0 ? 2 : 3);
+                } else if (b2 < 0) set(REPLACEMENT, b1 < 0 ? 1 : 2);
+                else set(((b0 & 0x0F) << 12) | ((b1 & 0x3F) << 6) | (b2 & 0x3F), 3);
+            } else if (b0 >= 0xF0 && b0 <= 0xF4) {
+                int b1 = continuation(pos + 1, b0 == 0xF0 ? 0x90 : 0x80, b0 == 0xF4 ? 0x8F : 0xBF);
+                int b2 = b1 < 0 ? -1 : continuation(pos + 2, 0x80, 0xBF);
+                int b3 = b2 < 0 ? -1 : continuation(pos + 3, 0x80, 0xBF);
+                if (b3 < 0) set(REPLACEMENT, b1 < 0 ? 1 : b2 < 0 ? 2 : 3);
+                else set(((b0 & 0x07) << 18) | ((b1 & 0x3F) << 12) | ((b2 & 0x3F) << 6) | (b3 & 0x3F), 4);
+            } else {
+                set(REPLACEMENT, 1);
+            }
+        }
+
+        private int continuation(int pos, int min, int max) {
+            if (pos >= end) return -1;
+            int b = bytes.get(pos) & 0xFF;
+            return b >= min && b <= max ? b : -1;
+        }
+
+        private void set(int codePoint, int codePointBytes) {
+            this.codePoint = codePoint;
+            this.codePointBytes = codePointBytes;
+        }
+
+        private void growChunks() {
+            int size = chunkOffsets.length * 2;
+            int[] offsets = new int[size];
+            System.arraycopy(chunkOffsets, 0, offsets, 0, chunkOffsets.length);
+            chunkOffsets = offsets;
+            boolean[] asciiFlags = new boolean[size];
+            System.arraycopy(chunkAscii, 0, asciiFlags, 0, chunkAscii.length);
+            chunkAscii = asciiFlags;
+            boolean[] midPairFlags = new boolean[size];
+            System.arraycopy(chunkStartsMidPair, 0, midPairFlags, 0, chunkStartsMidPair.length);
+            chunkStartsMidPair = midPairFlags;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * A Writer encoding the written chars as UTF-8 into an OutputStream, through a buffer of its own.
+ * Other than an OutputStreamWriter it copies runs of ASCII characters straight into its buffer, without going through
+ * a CharsetEncoder. Unpaired surrogates are encoded as '?', like String.getBytes does.
+ * A Utf8Writer is not thread-safe.
+ */
+public class Utf8Writer extends Writer {
+
+    private final OutputStream out;
+    private final byte[] buffer;
+    private int count;
+    private char highSurrogate; // the high surrogate of a pair whose low surrogate has not been written yet
+
+    public Utf8Writer(OutputStream out) {
+        this(out, 8192);
+    }
+
+    /**
+     * @param out the OutputStream to write the encoded bytes to
+     * @param bufferSize the size of the buffer in bytes, at least 4
+     */
+    public Utf8Writer(OutputStream out, int bufferSize) {
+        if (bufferSize < 4) throw new IllegalArgumentException("bufferSize must be at least 4");
+        this.out = out;
+        this.buffer = new byte[bufferSize];
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        encode((char) c);
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) throws IOException {
+        int end = offset + length;
+        while (offset < end) {
+            if (highSurrogate == 0) {
+                int limit = Math.min(end, offset + buffer.length - count);
+                char c;
+                while (offset < limit && (c = chars[offset]) < 0x80) {
+                    buffer[count++] = (byte) c;
+                    offset++;
+                }
+                if (offset == end) break;
+                if (offset == limit) {
+                    flushBuffer();
+                    continue;
+                }
+            }
+            encode(chars[offset++]);
+        }
+    }
+
+    @Override
+    public void write(String string, int offset, int length) throws IOException {
+        int end = offset + length;
+        while (offset < end) {
+            if (highSurrogate == 0) {
+                int limit = Math.min(end, offset + buffer.length - count);
+                char c;
+                while (offset < limit && (c = string.charAt(offset)) < 0x80) {
+                    buffer[count++] = (byte) c;
+                    offset++;
+                }
+                if (offset == end) break;
+                if (offset == limit) {
+                    flushBuffer();
+                    continue;
+                }
+            }
+            encode(string.charAt(offset++));
+        }
+    }
+
+    /**
+     * Writes all buffered bytes to the OutputStream and flushes it. A pending high surrogate is kept, since its low
+     * surrogate might still be written.
+     */
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    /**
+     * Encodes a pending high surrogate as '?' and writes all buffered bytes to the OutputStream, without flushing or
+     * closing it.
+     *
+     * @throws IOException if writing to the OutputStream fails
+     */
+    public void finish() throws IOException {
+        if (highSurrogate != 0) {
+            highSurrogate = 0;
+            if (count == buffer.length) flushBuffer();
+            buffer[count++] = '?';
+        }
+        flushBuffer();
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+        out.close();
+    }
+
+    private void encode(char c) throws IOException {
+        if (count > buffer.length - 4) flushBuffer();
+        if (highSurrogate != 0) {
+            char high = highSurrogate;
+            highSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                int codePoint = Character.toCodePoint(high, c);
+                buffer[count++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[count++] = (byte) (0x80 | (codePoint & 0x3F));
+                return;
+            }
+            buffer[count++] = '?';
+            if (count > buffer.length - 3) flushBuffer();
+        }
+        if (c < 0x80) {
+            buffer[count++] = (byte) c;
+        } else if (c < 0x800) {
+            buffer[count++] = (byte) (0xC0 | (c >> 6));
+            buffer[count++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c)) {
+            highSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            buffer[count++] = '?';
+        } else {
+            buffer[count++] = (byte) (0xE0 | (c >> 12));
+            buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buffer[count++] = (byte) (0x80 | (c & 0x3F));
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+}
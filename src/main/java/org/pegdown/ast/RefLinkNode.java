@@ -21,6 +21,8 @@ package org.pegdown.ast;
 public class RefLinkNode extends SuperNode {
     public final String separatorSpace;
     public final SuperNode referenceKey;
+    private String key;
+    private ReferenceNode reference;
 
     public RefLinkNode(SuperNode referenceKey, String separatorSpace, Node child) {
         super(child);
@@ -28,6 +30,30 @@ public class RefLinkNode extends SuperNode {
         this.referenceKey = referenceKey;
     }
 
+    /**
+     * @return the normalized key of the reference this node points to (as determined from the inline elements of
+     * its label), or null if the node was not created by the parser
+     */
+    public String getKey() {
+        return key;
+    }
+
+    public boolean setKey(String key) {
+        this.key = key;
+        return true;
+    }
+
+    /**
+     * @return the reference definition this node has been bound to by the parser, or null if there is none
+     */
+    public ReferenceNode getReference() {
+        return reference;
+    }
+
+    public void setReference(ReferenceNode reference) {
+        this.reference = reference;
+    }
+
     @Override
     public void accept(Visitor visitor) {
         visitor.visit(this);
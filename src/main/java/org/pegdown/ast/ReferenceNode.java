@@ -21,6 +21,7 @@ package org.pegdown.ast;
 public class ReferenceNode extends SuperNode {
     private String url;
     private String title;
+    private String key;
 
     public ReferenceNode(Node child) {
         super(child);
@@ -44,6 +45,19 @@ public class ReferenceNode extends SuperNode {
         return true;
     }
     
+    /**
+     * @return the normalized key of this reference (as determined from the inline elements of its label),
+     * or null if the node was not created by the parser
+     */
+    public String getKey() {
+        return key;
+    }
+
+    public boolean setKey(String key) {
+        this.key = key;
+        return true;
+    }
+
     @Override
     public void accept(Visitor visitor) {
         visitor.visit(this);
@@ -20,13 +20,17 @@ package org.pegdown.ast;
 
 import org.parboiled.common.ImmutableList;
 
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static org.parboiled.common.Preconditions.checkArgNotNull;
 
 public class RootNode extends SuperNode {
     private List<ReferenceNode> references = ImmutableList.of();
     private List<AbbreviationNode> abbreviations = ImmutableList.of();
+    private Map<String, ReferenceNode> referenceIndex = Collections.emptyMap();
 
     public List<ReferenceNode> getReferences() {
         return references;
@@ -35,6 +39,26 @@ public class RootNode extends SuperNode {
     public void setReferences(List<ReferenceNode> references) {
         checkArgNotNull(references, "references");
         this.references = references;
+        Map<String, ReferenceNode> index = new HashMap<String, ReferenceNode>();
+        for (ReferenceNode reference : references) {
+            if (reference.getKey() != null) index.put(reference.getKey(), reference);
+        }
+        this.referenceIndex = Collections.unmodifiableMap(index);
+    }
+
+    /**
+     * @return the references of this document keyed by their normalized key, only contains references with a key
+     */
+    public Map<String, ReferenceNode> getReferenceIndex() {
+        return referenceIndex;
+    }
+
+    /**
+     * @param key the normalized reference key
+     * @return the reference defined for the given key or null if there is none
+     */
+    public ReferenceNode getReference(String key) {
+        return referenceIndex.get(key);
     }
 
     public List<AbbreviationNode> getAbbreviations() {
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown.plugins;
+
+/**
+ * A plugin parser whose rules may be used by processors with render caches (see {@link org.pegdown.RenderCache}),
+ * which might be shared by all processors of an application. Plugins added with
+ * {@link PegDownPlugins.Builder#withPlugin(Class, Object...)} from parsers not implementing this interface, as well as
+ * rules added directly, disable the caches of the processors using them, since their output cannot be identified.
+ */
+public interface CacheablePluginParser {
+    /**
+     * Identifies the nodes produced by the rules of this parser: two instances of the same parser class with the same
+     * identity must produce identical nodes for every input. The identity must therefore describe everything the
+     * rules depend on, like the constructor arguments of the parser, e.g. "v2;tenant=42".
+     *
+     * @return the identity of this parser, or null if its output must not be cached
+     */
+    String getCacheIdentity();
+}
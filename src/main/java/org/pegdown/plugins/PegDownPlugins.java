@@ -35,15 +35,15 @@ public class PegDownPlugins {
     private final Rule[] inlinePluginRules;
     private final Rule[] blockPluginRules;
     private final Character[] specialChars;
+    // the identities of the plugin parsers the rules come from, null if any rule cannot be identified
+    private final List<String> pluginParsers;
 
-    private PegDownPlugins(Rule[] inlinePluginRules, Rule[] blockPluginRules) {
-        this(inlinePluginRules, blockPluginRules, new Character[0]);
-    }
-
-    private PegDownPlugins(Rule[] inlinePluginRules, Rule[] blockPluginRules, Character[] specialChars) {
+    private PegDownPlugins(Rule[] inlinePluginRules, Rule[] blockPluginRules, Character[] specialChars,
+                           List<String> pluginParsers) {
         this.inlinePluginRules = inlinePluginRules;
         this.blockPluginRules = blockPluginRules;
         this.specialChars = specialChars;
+        this.pluginParsers = pluginParsers;
     }
 
     public Rule[] getInlinePluginRules() {
@@ -58,6 +58,22 @@ public class PegDownPlugins {
         return specialChars;
     }
 
+    /**
+     * Identifies these plugins in render cache keys (see {@link org.pegdown.RenderCache}) by the classes and
+     * {@link CacheablePluginParser#getCacheIdentity() cache identities} of the plugin parsers they were built from and
+     * by their special chars, so different plugins always have different identities.
+     * Plugins containing rules that cannot be identified, i.e. rules added directly or from parsers without a cache
+     * identity, have none, which disables the caches of the processors using them.
+     *
+     * @return the identity of these plugins, or null if their output must not be cached
+     */
+    public String getCacheIdentity() {
+        if (pluginParsers == null) return null;
+        Character[] chars = specialChars.clone();
+        Arrays.sort(chars);
+        return "parsers=" + pluginParsers + ";chars=" + Arrays.toString(chars);
+    }
+
     public static Builder builder() {
         return new Builder();
     }
@@ -66,7 +82,12 @@ public class PegDownPlugins {
      * Create a builder that is a copy of the existing plugins
      */
     public static Builder builder(PegDownPlugins like) {
-        return builder().withInlinePluginRules(like.getInlinePluginRules()).withBlockPluginRules(like.getBlockPluginRules());
+        Builder builder = builder();
+        Collections.addAll(builder.inlinePluginRules, like.getInlinePluginRules());
+        Collections.addAll(builder.blockPluginRules, like.getBlockPluginRules());
+        if (like.pluginParsers != null) builder.pluginParsers.addAll(like.pluginParsers);
+        else builder.pluginParsers = null;
+        return builder;
     }
 
     /**
@@ -78,16 +99,27 @@ public class PegDownPlugins {
         private final List<Rule> inlinePluginRules = new ArrayList<Rule>();
         private final List<Rule> blockPluginRules = new ArrayList<Rule>();
         private final Set<Character> specialChars = new HashSet<Character>();
+        private List<String> pluginParsers = new ArrayList<String>();
 
         public Builder() {
         }
 
+        /**
+         * Adds the given inline rules. Since rules cannot be identified, this disables the render caches of the
+         * processors using the plugins (see {@link PegDownPlugins#getCacheIdentity()}).
+         */
         public Builder withInlinePluginRules(Rule... inlinePlugins) {
+            if (inlinePlugins.length > 0) pluginParsers = null;
             this.inlinePluginRules.addAll(Arrays.asList(inlinePlugins));
             return this;
         }
 
+        /**
+         * Adds the given block rules. Since rules cannot be identified, this disables the render caches of the
+         * processors using the plugins (see {@link PegDownPlugins#getCacheIdentity()}).
+         */
         public Builder withBlockPluginRules(Rule... blockPlugins) {
+            if (blockPlugins.length > 0) pluginParsers = null;
             this.blockPluginRules.addAll(Arrays.asList(blockPlugins));
             return this;
         }
@@ -100,6 +132,8 @@ public class PegDownPlugins {
         /**
          * Add a plugin parser.  This should either implement {@link InlinePluginParser} or {@link BlockPluginParser},
          * or both.  The parser will be enhanced by parboiled before its rules are extracted and registered here.
+         * Unless the parser implements {@link CacheablePluginParser} and has a cache identity, this disables the render
+         * caches of the processors using the plugins (see {@link PegDownPlugins#getCacheIdentity()}).
          *
          * @param pluginParser the plugin parser class.
          * @param arguments the arguments to pass to the constructor of that class.
@@ -111,18 +145,24 @@ public class PegDownPlugins {
                 throw new IllegalArgumentException("Parser plugin must implement a parser plugin interface to be useful");
             }
             BaseParser<Object> parser = Parboiled.createParser(pluginParser, arguments);
+            String cacheIdentity = parser instanceof CacheablePluginParser ?
+                    ((CacheablePluginParser) parser).getCacheIdentity() : null;
             if (parser instanceof InlinePluginParser) {
-                withInlinePluginRules(((InlinePluginParser) parser).inlinePluginRules());
+                Collections.addAll(inlinePluginRules, ((InlinePluginParser) parser).inlinePluginRules());
             }
             if (parser instanceof BlockPluginParser) {
-                withBlockPluginRules(((BlockPluginParser) parser).blockPluginRules());
+                Collections.addAll(blockPluginRules, ((BlockPluginParser) parser).blockPluginRules());
             }
+            // the rules of the parser are identified by the parser rather than by themselves
+            if (cacheIdentity == null) pluginParsers = null;
+            else if (pluginParsers != null) pluginParsers.add(pluginParser.getName() + '[' + cacheIdentity + ']');
             return this;
         }
 
         public PegDownPlugins build() {
             return new PegDownPlugins(inlinePluginRules.toArray(new Rule[0]), blockPluginRules.toArray(new Rule[0]),
-                    specialChars.toArray(new Character[0]));
+                    specialChars.toArray(new Character[0]),
+                    pluginParsers != null ? new ArrayList<String>(pluginParsers) : null);
         }
     }
 }
@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown.plugins;
+
+/**
+ * A {@link ToHtmlSerializerPlugin} that declares the node classes it is able to serialize.
+ * The {@link org.pegdown.ToHtmlSerializer} only offers nodes to such a plugin if they are instances of one of
+ * the declared classes, which allows it to dispatch custom nodes without asking every registered plugin.
+ */
+public interface TypedToHtmlSerializerPlugin extends ToHtmlSerializerPlugin {
+
+    /**
+     * @return the node classes (including their subclasses) this plugin knows how to serialize
+     */
+    Class<?>[] nodeClasses();
+}
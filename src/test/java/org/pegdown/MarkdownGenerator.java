@@ -0,0 +1,385 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates random but reproducible markdown documents for performance tests.
+ * The relative frequency of the block types as well as the density of the inline elements are configurable,
+ * so that inputs can be tailored to exercise specific parser rules and scaled to any size.
+ * The same seed and configuration always yield the same document.
+ *
+ * Example: new MarkdownGenerator(42).weight(Block.TABLE, 5).emphasisDensity(0.2).generate(100000)
+ */
+public class MarkdownGenerator {
+
+    public enum Block {
+        PARAGRAPH, HEADING, BULLET_LIST, ORDERED_LIST, BLOCKQUOTE, VERBATIM, FENCED_CODE, TABLE, DEFINITION_LIST,
+        HTML_BLOCK, HORIZONTAL_RULE
+    }
+
+    private static final String[] WORDS = {
+            "lorem", "ipsum", "dolor", "sit", "amet", "consectetur", "adipiscing", "elit", "sed", "do", "eiusmod",
+            "tempor", "incididunt", "ut", "labore", "et", "dolore", "magna", "aliqua", "enim", "ad", "minim", "veniam",
+            "quis", "nostrud", "exercitation", "ullamco", "laboris", "nisi", "aliquip", "ex", "ea", "commodo",
+            "consequat", "duis", "aute", "irure", "in", "reprehenderit", "voluptate", "velit", "esse", "cillum",
+            "fugiat", "nulla", "pariatur", "excepteur", "sint", "occaecat", "cupidatat", "non", "proident", "sunt",
+            "culpa", "qui", "officia", "deserunt", "mollit", "anim", "id", "est", "laborum"
+    };
+
+    private static final String[] EMPHASIS = {"*", "_", "**", "__", "***"};
+
+    private final long seed;
+    private final Map<Block, Integer> weights = new EnumMap<Block, Integer>(Block.class);
+    private double emphasisDensity = 0.05;
+    private double linkDensity = 0.02;
+    private double referenceLinkRatio = 0.5;
+    private double codeSpanDensity = 0.01;
+    private double inlineHtmlDensity = 0.01;
+    private int maxListDepth = 3;
+    private int maxQuoteDepth = 2;
+
+    // generation state, reset by generate(int)
+    private Random random;
+    private final List<String> pendingReferences = new ArrayList<String>();
+    private int referenceCount;
+
+    public MarkdownGenerator(long seed) {
+        this.seed = seed;
+        weights.put(Block.PARAGRAPH, 40);
+        weights.put(Block.HEADING, 8);
+        weights.put(Block.BULLET_LIST, 10);
+        weights.put(Block.ORDERED_LIST, 5);
+        weights.put(Block.BLOCKQUOTE, 5);
+        weights.put(Block.VERBATIM, 5);
+        weights.put(Block.FENCED_CODE, 0);
+        weights.put(Block.TABLE, 0);
+        weights.put(Block.DEFINITION_LIST, 0);
+        weights.put(Block.HTML_BLOCK, 2);
+        weights.put(Block.HORIZONTAL_RULE, 1);
+    }
+
+    /**
+     * Sets the relative frequency of the given block type, 0 disables it. Fenced code blocks, tables and
+     * definition lists are disabled by default, since they are only recognized with the respective extensions.
+     */
+    public MarkdownGenerator weight(Block block, int weight) {
+        if (weight < 0) throw new IllegalArgumentException("weight must not be negative");
+        weights.put(block, weight);
+        return this;
+    }
+
+    /**
+     * Sets the probability of an emphasis span starting at any given word.
+     */
+    public MarkdownGenerator emphasisDensity(double density) {
+        this.emphasisDensity = density;
+        return this;
+    }
+
+    /**
+     * Sets the probability of a link starting at any given word.
+     */
+    public MarkdownGenerator linkDensity(double density) {
+        this.linkDensity = density;
+        return this;
+    }
+
+    /**
+     * Sets the fraction of links that are reference links (with their reference defined after the block)
+     * rather than inline links.
+     */
+    public MarkdownGenerator referenceLinkRatio(double ratio) {
+        this.referenceLinkRatio = ratio;
+        return this;
+    }
+
+    /**
+     * Sets the probability of a code span starting at any given word.
+     */
+    public MarkdownGenerator codeSpanDensity(double density) {
+        this.codeSpanDensity = density;
+        return this;
+    }
+
+    /**
+     * Sets the probability of an inline HTML element starting at any given word.
+     */
+    public MarkdownGenerator inlineHtmlDensity(double density) {
+        this.inlineHtmlDensity = density;
+        return this;
+    }
+
+    /**
+     * Sets the maximum nesting depth of lists (1 meaning no nesting).
+     */
+    public MarkdownGenerator maxListDepth(int depth) {
+        this.maxListDepth = depth;
+        return this;
+    }
+
+    /**
+     * Sets the maximum nesting depth of blockquotes (1 meaning no nesting).
+     */
+    public MarkdownGenerator maxQuoteDepth(int depth) {
+        this.maxQuoteDepth = depth;
+        return this;
+    }
+
+    /**
+     * Generates a document of at least the given number of characters. The document always ends after a
+     * complete block (followed by the definitions of all references used in it).
+     */
+    public String generate(int size) {
+        random = new Random(seed);
+        pendingReferences.clear();
+        referenceCount = 0;
+        int totalWeight = 0;
+        for (int weight : weights.values()) totalWeight += weight;
+        if (totalWeight == 0) throw new IllegalStateException("All block types are disabled");
+
+        StringBuilder sb = new StringBuilder(size + 1000);
+        while (sb.length() < size) {
+            int pick = random.nextInt(totalWeight);
+            for (Map.Entry<Block, Integer> entry : weights.entrySet()) {
+                pick -= entry.getValue();
+                if (pick < 0) {
+                    sb.append(block(entry.getKey())).append('\n');
+                    break;
+                }
+            }
+            appendReferences(sb);
+        }
+        return sb.toString();
+    }
+
+    private String block(Block block) {
+        switch (block) {
+            case PARAGRAPH: return paragraph();
+            case HEADING: return heading();
+            case BULLET_LIST: return list(false, 1);
+            case ORDERED_LIST: return list(true, 1);
+            case BLOCKQUOTE: return blockquote(1);
+            case VERBATIM: return verbatim();
+            case FENCED_CODE: return fencedCode();
+            case TABLE: return table();
+            case DEFINITION_LIST: return definitionList();
+            case HTML_BLOCK: return htmlBlock();
+            case HORIZONTAL_RULE: return random.nextBoolean() ? "* * *\n" : "---\n";
+            default: throw new IllegalStateException();
+        }
+    }
+
+    private String paragraph() {
+        StringBuilder text = new StringBuilder();
+        for (int i = between(1, 5); i > 0; i--) {
+            if (text.length() > 0) text.append(' ');
+            text.append(sentence());
+        }
+        return wrap(text.toString(), 72);
+    }
+
+    private String heading() {
+        String text = capitalize(inlines(between(2, 6)));
+        if (random.nextInt(4) == 0) {
+            return text + '\n' + repeat(random.nextBoolean() ? '=' : '-', text.length()) + '\n';
+        }
+        return repeat('#', between(1, 6)) + ' ' + text + '\n';
+    }
+
+    private String list(boolean ordered, int depth) {
+        StringBuilder sb = new StringBuilder();
+        boolean loose = random.nextInt(3) == 0;
+        for (int i = 1, count = between(2, 6); i <= count; i++) {
+            String marker = ordered ? i + ". " : "*+-".charAt(depth % 3) + " ";
+            sb.append(marker).append(sentence()).append('\n');
+            if (depth < maxListDepth && random.nextInt(4) == 0) {
+                if (loose) sb.append('\n');
+                sb.append(indent(list(random.nextBoolean(), depth + 1), "    "));
+            }
+            if (loose && i < count) sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    private String blockquote(int depth) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = between(1, 3); i > 0; i--) {
+            if (sb.length() > 0) sb.append('\n');
+            int kind = random.nextInt(depth < maxQuoteDepth ? 4 : 3);
+            sb.append(kind == 0 ? list(false, maxListDepth) : kind == 1 ? verbatim() : kind == 2 ? paragraph() :
+                    blockquote(depth + 1));
+        }
+        return indent(sb.toString(), "> ");
+    }
+
+    private String verbatim() {
+        return indent(code(), "    ");
+    }
+
+    private String fencedCode() {
+        return "```" + (random.nextBoolean() ? "java" : "") + '\n' + code() + "```\n";
+    }
+
+    private String code() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = between(2, 8); i > 0; i--) {
+            sb.append(repeat(' ', 4 * random.nextInt(3))).append(word()).append('(').append(word()).append(", ")
+                    .append(random.nextInt(1000)).append(");\n");
+        }
+        return sb.toString();
+    }
+
+    private String table() {
+        int columns = between(2, 5);
+        StringBuilder sb = new StringBuilder("|");
+        for (int c = 0; c < columns; c++) sb.append(' ').append(capitalize(word())).append(" |");
+        sb.append("\n|");
+        for (int c = 0; c < columns; c++) {
+            int alignment = random.nextInt(4);
+            sb.append(alignment == 1 || alignment == 3 ? ":" : "-").append("---")
+                    .append(alignment == 2 || alignment == 3 ? ":" : "-").append('|');
+        }
+        sb.append('\n');
+        for (int r = between(2, 8); r > 0; r--) {
+            sb.append('|');
+            for (int c = 0; c < columns; c++) sb.append(' ').append(inlines(between(1, 3))).append(" |");
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    private String definitionList() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = between(1, 3); i > 0; i--) {
+            if (sb.length() > 0) sb.append('\n');
+            sb.append(capitalize(inlines(between(1, 3)))).append('\n');
+            for (int j = between(1, 2); j > 0; j--) sb.append(":   ").append(sentence()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private String htmlBlock() {
+        return "<div class=\"" + word() + "\">\n" + wrap(sentence(), 72) + "</div>\n";
+    }
+
+    private String sentence() {
+        return capitalize(inlines(between(4, 14))) + '.';
+    }
+
+    // a number of words, some of which are decorated with emphasis, links, code spans or inline HTML
+    private String inlines(int words) {
+        StringBuilder sb = new StringBuilder();
+        while (words > 0) {
+            if (sb.length() > 0) sb.append(' ');
+            int span = Math.min(words, between(1, 3));
+            double p = random.nextDouble();
+            if ((p -= emphasisDensity) < 0) {
+                String marker = EMPHASIS[random.nextInt(EMPHASIS.length)];
+                sb.append(marker).append(words(span)).append(marker);
+            } else if ((p -= linkDensity) < 0) {
+                sb.append(link(words(span)));
+            } else if ((p -= codeSpanDensity) < 0) {
+                sb.append('`').append(word()).append("()`");
+                span = 1;
+            } else if ((p -= inlineHtmlDensity) < 0) {
+                String tag = random.nextBoolean() ? "span" : "b";
+                sb.append('<').append(tag).append('>').append(words(span)).append("</").append(tag).append('>');
+            } else {
+                sb.append(word());
+                span = 1;
+            }
+            words -= span;
+        }
+        return sb.toString();
+    }
+
+    private String link(String text) {
+        if (random.nextDouble() < referenceLinkRatio) {
+            String id = "ref" + ++referenceCount;
+            pendingReferences.add('[' + id + "]: http://example.com/" + id + " \"" + capitalize(word()) + '"');
+            return '[' + text + "][" + id + ']';
+        }
+        if (random.nextInt(8) == 0) return "<http://example.com/" + word() + '>';
+        return '[' + text + "](http://example.com/" + word() + '/' + word() + ')';
+    }
+
+    private void appendReferences(StringBuilder sb) {
+        if (pendingReferences.isEmpty()) return;
+        for (String reference : pendingReferences) sb.append(reference).append('\n');
+        sb.append('\n');
+        pendingReferences.clear();
+    }
+
+    private String words(int count) {
+        StringBuilder sb = new StringBuilder(word());
+        for (int i = 1; i < count; i++) sb.append(' ').append(word());
+        return sb.toString();
+    }
+
+    private String word() {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+
+    private int between(int min, int max) {
+        return min + random.nextInt(max - min + 1);
+    }
+
+    private static String capitalize(String text) {
+        return Character.toUpperCase(text.charAt(0)) + text.substring(1);
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder sb = new StringBuilder(count);
+        for (int i = 0; i < count; i++) sb.append(c);
+        return sb.toString();
+    }
+
+    // breaks the text into lines of at most the given width (unless a single word is longer)
+    private static String wrap(String text, int width) {
+        StringBuilder sb = new StringBuilder(text.length() + 10);
+        int lineStart = 0;
+        for (String word : text.split(" ")) {
+            if (sb.length() > lineStart) {
+                if (sb.length() - lineStart + 1 + word.length() > width) {
+                    sb.append('\n');
+                    lineStart = sb.length();
+                } else {
+                    sb.append(' ');
+                }
+            }
+            sb.append(word);
+        }
+        return sb.append('\n').toString();
+    }
+
+    // prefixes all lines of the (newline terminated) text, blank lines only get the non-blank part of the prefix
+    private static String indent(String text, String prefix) {
+        StringBuilder sb = new StringBuilder(text.length() + 100);
+        for (String line : text.split("\n")) {
+            sb.append(line.length() > 0 ? prefix + line : prefix.trim()).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -4,14 +4,20 @@ import org.parboiled.BaseParser;
 import org.parboiled.Rule;
 import org.parboiled.support.StringBuilderVar;
 import org.pegdown.plugins.BlockPluginParser;
+import org.pegdown.plugins.CacheablePluginParser;
 import org.pegdown.plugins.InlinePluginParser;
 
-public class PluginParser extends Parser implements InlinePluginParser, BlockPluginParser {
+public class PluginParser extends Parser implements InlinePluginParser, BlockPluginParser, CacheablePluginParser {
 
     public PluginParser() {
         super(ALL, 1000l, DefaultParseRunnerProvider);
     }
 
+    @Override
+    public String getCacheIdentity() {
+        return "1";
+    }
+
     @Override
     public Rule[] blockPluginRules() {
         return new Rule[] {BlockPlugin()};
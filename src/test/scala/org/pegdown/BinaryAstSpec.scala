@@ -0,0 +1,66 @@
+package org.pegdown
+
+import org.specs2.mutable.Specification
+import org.parboiled.common.FileUtils
+import org.parboiled.support.ToStringFormatter
+import org.parboiled.trees.GraphUtils
+import ast.{RefLinkNode, Node}
+import Extensions._
+
+class BinaryAstSpec extends Specification {
+
+  def roundTrip(testName: String) = {
+    val markdown = FileUtils.readAllCharsFromResource(testName + ".md")
+    require(markdown != null, "Test '" + testName + "' not found")
+    val astRoot = new PegDownProcessor(ALL).parseMarkdown(markdown)
+    val rehydrated = new BinaryAstReader().read(new BinaryAstWriter().write(astRoot))
+
+    GraphUtils.printTree(rehydrated, new ToStringFormatter[Node]) === GraphUtils.printTree(astRoot, new ToStringFormatter[Node])
+    new ToHtmlSerializer(new LinkRenderer).toHtml(rehydrated) === new ToHtmlSerializer(new LinkRenderer).toHtml(astRoot)
+  }
+
+  "The binary AST format" should {
+
+    "faithfully round-trip ASTs" in {
+      roundTrip("MarkdownTest103/Links, reference style")
+      roundTrip("MarkdownTest103/Ordered and unordered lists")
+      roundTrip("pegdown/Abbreviations")
+      roundTrip("pegdown/Smartypants")
+      roundTrip("pegdown/Tables")
+      roundTrip("pegdown/GFM_Fenced_Code_Blocks")
+      roundTrip("PhpMarkdownExtra/Definition_Lists")
+    }
+
+    "preserve the reference index and reference bindings" in {
+      val astRoot = new PegDownProcessor().parseMarkdown("[link][r]\n\n[r]: /url\n".toCharArray)
+      val rehydrated = new BinaryAstReader().read(new BinaryAstWriter().write(astRoot))
+      val link = rehydrated.getChildren.get(0).getChildren.get(0).getChildren.get(0).asInstanceOf[RefLinkNode]
+      (link.getReference eq rehydrated.getReference("r")) must beTrue
+      (rehydrated.getReferences.get(0) eq rehydrated.getChildren.get(1)) must beTrue
+    }
+
+    "reject invalid input" in {
+      new BinaryAstReader().read("no AST".getBytes) must throwA[IllegalArgumentException]
+    }
+
+    "reject corrupt input without running out of memory" in {
+      val valid = new BinaryAstWriter().write(new PegDownProcessor(ALL).parseMarkdown("# Header\n\n[link][r] *x*\n\n[r]: /url\n".toCharArray))
+      val hugeCount = valid.take(5) ++ Array[Byte](-1, -1, -1, -1, 7) // 2^31 - 1 strings
+      new BinaryAstReader().read(hugeCount) must throwA[IllegalArgumentException]
+      val negativeCount = valid.take(5) ++ Array[Byte](-1, -1, -1, -1, 15)
+      new BinaryAstReader().read(negativeCount) must throwA[IllegalArgumentException]
+
+      val random = new java.util.Random(42)
+      val failures = (1 to 10000).flatMap { _ =>
+        val corrupt = valid.clone()
+        for (_ <- 1 to 3) corrupt(random.nextInt(corrupt.length)) = random.nextInt(256).toByte
+        try { new BinaryAstReader().read(corrupt); None }
+        catch {
+          case e: IllegalArgumentException => None
+          case e: Throwable => Some(e)
+        }
+      }
+      failures must beEmpty
+    }
+  }
+}
@@ -0,0 +1,43 @@
+package org.pegdown
+
+import org.specs2.mutable.Specification
+import Extensions._
+
+class CancellationTokenSpec extends Specification {
+
+  def cancelled = { val token = new CancellationToken; token.cancel(); token }
+
+  "A CancellationToken" should {
+
+    "stop markdownToHtml" in {
+      val processor = new PegDownProcessor(NONE)
+      processor.markdownToHtml("Some *text*", cancelled) must beNull
+      processor.markdownToHtml("Some *text*".toCharArray, new LinkRenderer,
+        java.util.Collections.emptyMap[String, VerbatimSerializer](), cancelled) must beNull
+      processor.markdownToHtml("Some *text*", new CancellationToken) === "<p>Some <em>text</em></p>"
+      processor.markdownToHtml("Some *text*") === "<p>Some <em>text</em></p>"
+    }
+
+    "stop parseMarkdown" in {
+      val processor = new PegDownProcessor(NONE)
+      processor.parseMarkdown("".toCharArray, cancelled) must throwA[ParsingCancelledException]
+      processor.parseMarkdown("Some *text*", cancelled) must throwA[ParsingCancelledException]
+      processor.parseMarkdown("Some *text*") must not(beNull)
+    }
+
+    "expire after its timeout" in {
+      new PegDownProcessor(NONE).markdownToHtml("Some *text*", new CancellationToken(-1)) must beNull
+      new CancellationToken(1000).isCancelled must beFalse
+    }
+
+    "be checked before every block" in {
+      var checks = 0
+      val token = new CancellationToken {
+        override def isCancelled = { checks += 1; checks > 10 }
+      }
+      new PegDownProcessor(NONE).markdownToHtml("***\n\n" * 100, token) must beNull // no inline elements
+      checks === 11
+    }
+  }
+
+}
@@ -0,0 +1,69 @@
+package org.pegdown
+
+import org.specs2.mutable.Specification
+import org.parboiled.support.{Chars, IndexRange, Position}
+import java.io.StringReader
+import java.nio.CharBuffer
+
+class CharSequenceInputBufferSpec extends Specification {
+
+  "The CharSequenceInputBuffer" should {
+
+    "virtually append two newlines" in {
+      val buffer = new CharSequenceInputBuffer(new java.lang.StringBuilder("ab\ncd"))
+      buffer.length === 7
+      (0 until 8).map(buffer.charAt).mkString === "ab\ncd\n\n" + Chars.EOI
+      buffer.charAt(-1) === Chars.EOI
+      buffer.extract(1, 6) === "b\ncd\n"
+      buffer.extract(new IndexRange(5, 10)) === "\n\n"
+      buffer.extract(3, 1) === ""
+      buffer.test(4, "d\n\n".toCharArray) must beTrue
+      buffer.test(5, "\n\n\n".toCharArray) must beFalse
+    }
+
+    "support position lookups for error messages" in {
+      val buffer = new CharSequenceInputBuffer("ab\ncd")
+      buffer.getLineCount === 4
+      buffer.getPosition(0) === new Position(1, 1)
+      buffer.getPosition(4) === new Position(2, 2)
+      buffer.extractLine(2) === "cd"
+      buffer.extractLine(4) === ""
+    }
+  }
+
+  "The PegDownProcessor" should {
+
+    val markdown = "# Title\n\nSome *text* with a [link][ref].\n\n[ref]: /url\n\n* a\n* b"
+    val html = new PegDownProcessor().markdownToHtml(markdown.toCharArray)
+
+    "render all kinds of character sequences like char arrays" in {
+      val processor = new PegDownProcessor()
+      processor.markdownToHtml(markdown) === html
+      processor.markdownToHtml(new java.lang.StringBuilder(markdown)) === html
+      processor.markdownToHtml(CharBuffer.wrap("xx" + markdown).position(2).asInstanceOf[CharBuffer]) === html
+      processor.markdownToHtml(new StringReader(markdown)) === html
+    }
+
+    "still prepare the source if prepareSource is overridden" in {
+      val processor = new PegDownProcessor() {
+        override def prepareSource(source: Array[Char]) = super.prepareSource(source.map(_.toUpper))
+      }
+      processor.markdownToHtml(markdown) === new PegDownProcessor().markdownToHtml(markdown.toUpperCase)
+    }
+
+    "still render Strings with the char array methods if those are overridden" in {
+      val processor = new PegDownProcessor() {
+        override def markdownToHtml(source: Array[Char]) = "1"
+        override def markdownToHtml(source: Array[Char], linkRenderer: LinkRenderer,
+                                    verbatimSerializerMap: java.util.Map[String, VerbatimSerializer]) = "3"
+        override def parseMarkdown(source: Array[Char]) = new ast.RootNode
+      }
+      processor.markdownToHtml(markdown) === "1"
+      processor.markdownToHtml(new java.lang.StringBuilder(markdown)) === "1"
+      processor.markdownToHtml(markdown, new LinkRenderer) === "3"
+      processor.markdownToHtml(markdown, new LinkRenderer, java.util.Collections.emptyMap[String, VerbatimSerializer]) === "3"
+      processor.parseMarkdown(markdown: CharSequence).getChildren.isEmpty must beTrue
+    }
+  }
+
+}
@@ -0,0 +1,36 @@
+package org.pegdown
+
+import org.specs2.mutable.Specification
+import Extensions._
+
+class InlineRenderingSpec extends Specification {
+
+  "Inline rendering" should {
+
+    "leave out the block wrappers" in {
+      val processor = new PegDownProcessor(NONE)
+      processor.inlineMarkdownToHtml("Some *text*") === "Some <em>text</em>"
+      processor.inlineMarkdownToHtml("a [link](http://example.com/) and `code`") ===
+        "a <a href=\"http://example.com/\">link</a> and <code>code</code>"
+      processor.inlineMarkdownToHtml("") === ""
+    }
+
+    "not recognize blocks" in {
+      val processor = new PegDownProcessor(NONE)
+      processor.inlineMarkdownToHtml("# no heading") === "# no heading"
+      processor.inlineMarkdownToHtml("* no list") === "* no list"
+      processor.inlineMarkdownToHtml("first\n\nsecond") === "first\nsecond"
+    }
+
+    "support the inline extensions" in {
+      new PegDownProcessor(SMARTYPANTS | STRIKETHROUGH).inlineMarkdownToHtml("~~old~~ \"new\"") ===
+        "<del>old</del> &ldquo;new&rdquo;"
+    }
+
+    "return null on timeouts" in {
+      new PegDownProcessor(NONE, -1).inlineMarkdownToHtml("Some *text*") must beNull
+      new PegDownProcessor(NONE, -1).parseInlineMarkdown("Some *text*") must throwA[ParsingTimeoutException]
+    }
+  }
+
+}
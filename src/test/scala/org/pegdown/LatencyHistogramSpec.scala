@@ -0,0 +1,62 @@
+package org.pegdown
+
+import org.specs2.mutable.Specification
+
+class LatencyHistogramSpec extends Specification {
+
+  "The LatencyHistogram" should {
+
+    "report percentiles within its precision" in {
+      val histogram = new LatencyHistogram
+      (1 to 100000).foreach(i => histogram.record(i * 1000L))
+      val snapshot = histogram.snapshot
+      snapshot.getCount === 100000
+      snapshot.getMax === 100000000L
+      snapshot.getMean === 50000500.0
+      Seq(0.001, 0.1, 0.5, 0.9, 0.99, 0.999, 1.0).foreach { fraction =>
+        val exact = math.ceil(fraction * 100000) * 1000
+        snapshot.getPercentile(fraction).toDouble must beCloseTo(exact, exact / 16)
+      }
+      success
+    }
+
+    "bucket values from zero to Long.MaxValue" in {
+      val histogram = new LatencyHistogram
+      Seq(-5L, 0L, 1L, 15L, 16L, 17L, Long.MaxValue).foreach(histogram.record)
+      val snapshot = histogram.snapshot
+      snapshot.getPercentile(0.01) === 0
+      snapshot.getPercentile(0.5) === 15
+      snapshot.getPercentile(1.0) === Long.MaxValue
+      (0 until LatencyHistogram.BUCKETS).map(LatencyHistogram.bucketUpperBound).sliding(2).forall(p => p(0) < p(1)) must beTrue
+      LatencyHistogram.bucketIndex(Long.MaxValue) === LatencyHistogram.BUCKETS - 1
+    }
+
+    "merge snapshots and reset atomically" in {
+      val a = new LatencyHistogram
+      val b = new LatencyHistogram
+      (1 to 100).foreach(i => a.record(i))
+      (101 to 200).foreach(i => b.record(i))
+      val merged = a.snapshot.merge(b.snapshotAndReset)
+      merged.getCount === 200
+      merged.getMax === 200
+      merged.getPercentile(0.5) must be_>=(100L)
+      merged.getPercentile(0.5) must be_<=(100L + 100 / 16)
+      b.snapshot.getCount === 0
+      b.snapshot.getPercentile(0.5) === 0
+    }
+
+    "not lose values recorded concurrently" in {
+      val histogram = new LatencyHistogram
+      val threads = (1 to 4).map(t => new Thread {
+        override def run() { (1 to 100000).foreach(i => histogram.record(i)) }
+      })
+      threads.foreach(_.start())
+      var snapshot = histogram.snapshotAndReset
+      threads.foreach(_.join())
+      snapshot = snapshot.merge(histogram.snapshot)
+      snapshot.getCount === 400000
+      snapshot.getMax === 100000
+    }
+  }
+
+}
@@ -0,0 +1,58 @@
+package org.pegdown
+
+import org.specs2.mutable.Specification
+import scala.collection.JavaConversions._
+import ast._
+import MarkdownGenerator.Block
+import Extensions._
+
+class MarkdownGeneratorSpec extends Specification {
+
+  "The MarkdownGenerator" should {
+
+    "generate the same document for the same seed and configuration" in {
+      val generator = new MarkdownGenerator(42).weight(Block.TABLE, 5).emphasisDensity(0.2)
+      val document = generator.generate(10000)
+      generator.generate(10000) === document
+      new MarkdownGenerator(42).weight(Block.TABLE, 5).emphasisDensity(0.2).generate(10000) === document
+      new MarkdownGenerator(43).weight(Block.TABLE, 5).emphasisDensity(0.2).generate(10000) !== document
+    }
+
+    "generate documents of at least the requested size" in {
+      new MarkdownGenerator(1).generate(1000).length must be_>=(1000)
+      new MarkdownGenerator(1).generate(100000).length must be_>=(100000)
+    }
+
+    "only generate the enabled block types" in {
+      val expected = Map(
+        Block.PARAGRAPH -> classOf[ParaNode],
+        Block.HEADING -> classOf[HeaderNode],
+        Block.BULLET_LIST -> classOf[BulletListNode],
+        Block.ORDERED_LIST -> classOf[OrderedListNode],
+        Block.BLOCKQUOTE -> classOf[BlockQuoteNode],
+        Block.VERBATIM -> classOf[VerbatimNode],
+        Block.FENCED_CODE -> classOf[VerbatimNode],
+        Block.TABLE -> classOf[TableNode],
+        Block.DEFINITION_LIST -> classOf[DefinitionListNode],
+        Block.HTML_BLOCK -> classOf[HtmlBlockNode],
+        Block.HORIZONTAL_RULE -> classOf[SimpleNode]
+      )
+      val processor = new PegDownProcessor(ALL)
+      Block.values.foreach { block =>
+        val generator = new MarkdownGenerator(7).linkDensity(0) // no references between the blocks
+        Block.values.foreach(other => generator.weight(other, if (other == block) 1 else 0))
+        val root = processor.parseMarkdown(generator.generate(5000).toCharArray)
+        root.getChildren.map(_.getClass).toSet === Set(expected(block))
+      }
+      success
+    }
+
+    "define all references it uses" in {
+      val markdown = new MarkdownGenerator(3).linkDensity(0.2).referenceLinkRatio(1).generate(20000)
+      val root = new PegDownProcessor().parseMarkdown(markdown.toCharArray)
+      root.getReferences.size must be_>(0)
+      markdown.split("\n").count(_.startsWith("[ref")) === root.getReferences.size
+    }
+  }
+
+}
@@ -0,0 +1,65 @@
+package org.pegdown
+
+import org.specs2.mutable.Specification
+import org.parboiled.Parboiled
+import scala.collection.JavaConversions._
+import scala.collection.mutable.ListBuffer
+import ast._
+import Extensions._
+
+class MarkdownHandlerSpec extends Specification {
+
+  class RecordingHandler extends MarkdownHandler {
+    val events = ListBuffer.empty[String]
+    val nodes = ListBuffer.empty[Node]
+    def startNode(node: Node) { events += "<" + name(node); nodes += node }
+    def endNode(node: Node) { events += ">" + name(node) }
+    def text(node: TextNode) { events += name(node) + "(" + node.getText + ")@" + node.getStartIndex }
+    def name(node: Node) = node.getClass.getSimpleName.stripSuffix("Node")
+  }
+
+  def events(markdown: String, options: Int = NONE) = {
+    val handler = new RecordingHandler
+    new PegDownProcessor(options).parseMarkdown(markdown.toCharArray, handler)
+    handler
+  }
+
+  "Streaming parses" should {
+
+    "report all nodes in document order" in {
+      events("# Title\n\nSome *text*\n\n> quote").events.toList === List(
+        "<Root",
+        "<Header", "Text(Title)@2", ">Header",
+        "<Para", "<Super", "Text(Some )@9", "<StrongEmphSuper", "Text(text)@15", ">StrongEmphSuper",
+        ">Super", ">Para",
+        "<BlockQuote", "<Para", "<Super", "Text(quote)@24", ">Super", ">Para", ">BlockQuote",
+        ">Root")
+    }
+
+    "report the same nodes as the AST of the complete document" in {
+      val markdown = "* a\n* b\n\n    code\n\n| x | y |\n|---|---|\n| 1 | 2 |\n\nTerm\n:   Definition\n\n<div>\nhtml\n</div>"
+      val root = new PegDownProcessor(ALL).parseMarkdown(markdown.toCharArray)
+      val expected = new RecordingHandler
+      root.getChildren.foreach(Parser.emit(_, expected))
+      events(markdown, ALL).events.toList === "<Root" :: expected.events.toList ::: List(">Root")
+    }
+
+    "bind reference links to the references defined before them" in {
+      val handler = events("[a][r]\n\n[r]: /url\n\n[b][r]")
+      val refLinks = handler.nodes.collect { case node: RefLinkNode => node }
+      refLinks.size === 2
+      refLinks(0).getReference must beNull
+      refLinks(1).getReference.getUrl === "/url"
+      val root = handler.nodes.head.asInstanceOf[RootNode]
+      root.getChildren must beEmpty
+      root.getReferences.size === 1
+    }
+
+    "throw a ParsingTimeoutException on timeouts" in {
+      val processor = new PegDownProcessor(Parboiled.createParser[Parser, AnyRef](classOf[Parser],
+        new java.lang.Integer(NONE), new java.lang.Long(-1), Parser.DefaultParseRunnerProvider))
+      processor.parseMarkdown("abc".toCharArray, new RecordingHandler) must throwA[ParsingTimeoutException]
+    }
+  }
+
+}
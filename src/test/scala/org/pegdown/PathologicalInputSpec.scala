@@ -1,5 +1,8 @@
 package org.pegdown
 
+import org.parboiled.{MatcherContext, Parboiled, Rule}
+import org.parboiled.parserunners.ParseRunner
+import ast.Node
 import Extensions._
 
 
@@ -30,4 +33,82 @@ class PathologicalInputSpec extends AbstractPegDownSpec {
 
   }
 
+  "The Parser" should {
+    "not get super-linearly slower on many nested blockquote lines" in
+      linear(NONE, 160)(n => (("> " * 8) + "a\n") * n)
+    "not get super-linearly slower on list items with alternating indents" in
+      linear(NONE, 80)(n => (0 until n).map(i => ("    " * (i % 8)) + "- a\n").mkString)
+    "not get super-linearly slower on long '*' runs" in linear(ALL, 640)("*" * _)
+    "not get super-linearly slower on long '_' runs" in linear(ALL, 640)("_" * _)
+    "not get super-linearly slower on long '~' runs" in linear(ALL, 640)("~" * _)
+    "not get super-linearly slower on unclosed emphasis" in linear(ALL, 20)("*a " * _)
+    "not get super-linearly slower on unclosed strong" in linear(ALL, 20)("**a " * _)
+    "not get super-linearly slower on unclosed underscore emphasis" in linear(ALL, 20)("_a " * _)
+    "not get super-linearly slower on unclosed strikethrough" in linear(ALL, 20)("~~a " * _)
+    "not get super-linearly slower on unclosed explicit links" in linear(ALL, 160)("[a](" * _)
+    "not get super-linearly slower on HTML block tag soup" in linear(NONE, 80)("<div><span><p>" * _)
+    "not get super-linearly slower on unclosed HTML blocks" in linear(NONE, 160)("<hr>\n\n<div>\n\n" * _)
+    "not get super-linearly slower on inline HTML tag soup" in linear(NONE, 160)(n => "a " + ("<span a=\"b\" " * n))
+    "not get super-linearly slower on long table rows" in
+      linear(TABLES, 160)(n => "|" + ("a|" * n) + "\n|" + ("-|" * n) + "\n|" + ("b|" * n) + "\n")
+    "not get super-linearly slower on autolink-like strings" in
+      linear(AUTOLINKS, 160)(n => ("http://a.b/" * n) + " " + ("www." * n) + " " + ("a@b." * n))
+
+    "stay within its time budget on deeply nested blockquotes (known to be quadratic)" in
+      quadratic(NONE, 10)(n => ("> " * n) + "a\n")
+    "stay within its time budget on deeply indented list items (known to be quadratic)" in
+      quadratic(NONE, 10)(n => (0 until n).map(i => ("    " * i) + "- a\n").mkString)
+    "stay within its time budget on unclosed brackets (known to be quadratic)" in quadratic(ALL, 40)("[" * _)
+    "stay within its time budget on unclosed image brackets (known to be quadratic)" in quadratic(ALL, 20)("![" * _)
+    "stay within its time budget on nested unclosed quotes (known to be quadratic)" in
+      quadratic(QUOTES, 20)("\"a 'b " * _)
+  }
+
+  val timeBudgetMillis = 2000L
+
+  /**
+   * Parses the generated input at the given base size and at 4 and 16 times that size. At every step the number of
+   * rule invocations (which, unlike the parsing time, is deterministic) must not grow faster than the input length
+   * (plus 10% slack for fixed overheads) and the largest parse must stay within the time budget.
+   * The sizes are kept small enough for the nested cases not to exhaust the default thread stack.
+   */
+  def linear(options: Int, size: Int)(generate: Int => String) = scaling(options, size, 1, 1.1)(generate)
+
+  /**
+   * Like linear, but for the inputs that are known to be parsed in quadratic time, which must not get any worse and
+   * whose largest parse must stay within the time budget.
+   */
+  def quadratic(options: Int, size: Int)(generate: Int => String) = scaling(options, size, 2, 1.25)(generate)
+
+  def scaling(options: Int, size: Int, exponent: Int, slack: Double)(generate: Int => String) = {
+    val runnerProvider = new StepCountingParseRunnerProvider
+    val processor = new PegDownProcessor(Parboiled.createParser[Parser, AnyRef](classOf[Parser],
+      new java.lang.Integer(options), new java.lang.Long(timeBudgetMillis), runnerProvider))
+    def measure(size: Int): (Int, Long, Long) = {
+      val markdown = generate(size).toCharArray
+      runnerProvider.steps = 0
+      val start = System.currentTimeMillis()
+      processor.parseMarkdown(markdown)
+      (markdown.length, runnerProvider.steps, System.currentTimeMillis() - start)
+    }
+    val measurements = List(size, 4 * size, 16 * size).map(measure)
+    val excessiveGrowths = measurements.zip(measurements.tail).map {
+      case ((smallLength, smallSteps, _), (largeLength, largeSteps, _)) =>
+        (largeSteps.toDouble / smallSteps, math.pow(largeLength.toDouble / smallLength, exponent) * slack)
+    }.filter { case (growth, allowedGrowth) => growth > allowedGrowth }
+
+    measurements.last._3 must be_<(timeBudgetMillis)
+    excessiveGrowths must beEmpty
+  }
+
+  class StepCountingParseRunnerProvider extends Parser.ParseRunnerProvider {
+    var steps = 0L
+    def get(rule: Rule): ParseRunner[Node] = new MemoMismatchesParseRunner.Basic[Node](rule) {
+      override def `match`(context: MatcherContext[_]): Boolean = {
+        steps += 1
+        super.`match`(context)
+      }
+    }
+  }
+
 }
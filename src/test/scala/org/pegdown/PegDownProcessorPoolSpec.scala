@@ -0,0 +1,121 @@
+package org.pegdown
+
+import org.specs2.mutable.Specification
+import java.util.concurrent.{CancellationException, CountDownLatch, ExecutorService, Executors}
+import org.parboiled.Parboiled
+import org.pegdown.plugins.PegDownPlugins
+import scala.collection.JavaConversions._
+import Extensions._
+
+class PegDownProcessorPoolSpec extends Specification {
+
+  def withExecutor[T](body: ExecutorService => T): T = {
+    val executor = Executors.newFixedThreadPool(4)
+    try body(executor) finally executor.shutdown()
+  }
+
+  val documents: java.util.List[String] = (1 to 200).map(i => "# Document " + i + "\n\nSome *text* and a [link](/" + i + ").\n\n* a\n* b")
+
+  "The PegDownProcessorPool" should {
+
+    "render batches in the order of their documents" in withExecutor { executor =>
+      val pool = new PegDownProcessorPool(ALL)
+      val result = pool.renderAll(documents, executor, 8)
+      val processor = new PegDownProcessor(ALL)
+      result.getHtml.toList === documents.map(processor.markdownToHtml(_)).toList
+      result.getDocumentCount === 200
+      result.getTimeoutCount === 0
+      result.getSourceChars === documents.map(_.length.toLong).sum
+      result.getDocumentsPerSecond must be_>(0.0)
+      pool.getProcessorCount must be_<=(4)
+    }
+
+    "not fail batches on parsing timeouts" in withExecutor { executor =>
+      val result = new PegDownProcessorPool(NONE, -1).renderAll(documents.subList(0, 10), executor)
+      result.getHtml.toList === List.fill(10)(null)
+      result.getTimeoutCount === 10
+    }
+
+    "stream results to a handler without reading far ahead" in withExecutor { executor =>
+      val pool = new PegDownProcessorPool(NONE)
+      var read = 0
+      val sources = documents.iterator.map { document => read += 1; document }
+      val results = scala.collection.mutable.ListBuffer.empty[(Int, Int, String)]
+      val statistics = pool.renderAll(sources, executor, 3, new PegDownProcessorPool.BatchHandler {
+        def rendered(index: Int, source: CharSequence, html: String) { results += ((index, read, html)) }
+      })
+      results.map(_._1).toList === (0 until 200).toList
+      results.forall { case (index, read, _) => read - index <= 3 } must beTrue
+      results.forall { case (index, _, html) => html.contains("Document " + (index + 1) + "<") } must beTrue
+      statistics.getDocumentCount === 200
+    }
+
+    "rethrow rendering failures" in withExecutor { executor =>
+      val pool = new PegDownProcessorPool(NONE) {
+        override def createProcessor() = new PegDownProcessor(NONE) {
+          override def markdownToHtml(source: CharSequence): String = throw new IllegalStateException("broken")
+        }
+      }
+      pool.renderAll(documents, executor) must throwA[IllegalStateException]
+    }
+
+    "render asynchronously with a bounded number of processors" in withExecutor { executor =>
+      val pool = new PegDownProcessorPool(NONE, 1000, PegDownPlugins.NONE, 2)
+      val futures = documents.map(pool.renderAsync(_, executor))
+      val processor = new PegDownProcessor(NONE)
+      futures.map(_.get).toList === documents.map(processor.markdownToHtml(_)).toList
+      pool.getProcessorCount must be_<=(2)
+    }
+
+    "report its utilization" in withExecutor { executor =>
+      val started, proceed = new CountDownLatch(1)
+      val pool = new PegDownProcessorPool(NONE, 1000, PegDownPlugins.NONE, 2) {
+        override def createProcessor() = new PegDownProcessor(NONE) {
+          override def prepareSource(source: Array[Char]): Array[Char] = {
+            started.countDown()
+            proceed.await()
+            super.prepareSource(source)
+          }
+        }
+      }
+      val first, second = pool.borrow()
+      (pool.getProcessorCount, pool.getBorrowedCount, pool.getIdleCount) === (2, 2, 0)
+      pool.release(first)
+      pool.release(second)
+      (pool.getProcessorCount, pool.getBorrowedCount, pool.getIdleCount) === (2, 0, 2)
+      val rendering = pool.renderAsync("x", executor)
+      started.await()
+      (pool.getAsyncRenderingCount, pool.getBorrowedCount, pool.getIdleCount) === (1, 1, 1)
+      proceed.countDown()
+      rendering.get === "<p>x</p>"
+      (pool.getAsyncRenderingCount, pool.getBorrowedCount, pool.getIdleCount) === (0, 0, 2)
+    }
+
+    "stop the parse of cancelled renderings" in withExecutor { executor =>
+      val events = java.util.Collections.synchronizedList(new java.util.ArrayList[String])
+      val listener = new ProcessingListener {
+        override def parsed(depth: Int, inputLength: Int, nanos: Long) { events.add("parsed " + inputLength) }
+        override def serialized(htmlLength: Int, nanos: Long) { events.add("serialized") }
+      }
+      val started, proceed = new CountDownLatch(1)
+      val pool = new PegDownProcessorPool(NONE, 1000, PegDownPlugins.NONE, 1) {
+        override def createProcessor() = new PegDownProcessor(Parboiled.createParser[Parser, AnyRef](classOf[Parser],
+          new java.lang.Integer(NONE), new java.lang.Long(1000), Parser.DefaultParseRunnerProvider), null, null, listener) {
+          override def prepareSource(source: Array[Char]): Array[Char] = {
+            started.countDown()
+            proceed.await()
+            super.prepareSource(source)
+          }
+        }
+      }
+      val cancelled = pool.renderAsync("Some *text*", executor)
+      started.await()
+      cancelled.cancel(false)
+      proceed.countDown()
+      cancelled.get must throwA[CancellationException]
+      pool.renderAsync("x", executor).get === "<p>x</p>" // runs after the cancelled rendering released the permit
+      events.toList === List("parsed 3", "serialized")
+    }
+  }
+
+}
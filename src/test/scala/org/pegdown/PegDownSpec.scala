@@ -7,7 +7,7 @@ import org.pegdown.ast.VerbatimNode
 import org.parboiled.common.FileUtils
 import java.util.Collections
 import scala.collection.immutable.HashMap
-import plugins.{ToHtmlSerializerPlugin, PegDownPlugins}
+import plugins.{TypedToHtmlSerializerPlugin, ToHtmlSerializerPlugin, PegDownPlugins}
 
 
 class PegDownSpec extends AbstractPegDownSpec {
@@ -27,6 +27,7 @@ class PegDownSpec extends AbstractPegDownSpec {
         test("pegdown/Linebreaks")
         test("pegdown/Parens_in_URL")
         test("pegdown/Quoted Blockquote")
+        test("pegdown/Reference Keys")
         test("pegdown/Smartypants")
         test("pegdown/Strikethrough")
         test("pegdown/Tables")
@@ -49,6 +50,7 @@ class PegDownSpec extends AbstractPegDownSpec {
 
       test("pegdown/Emph_With_Linebreaks")
       test("pegdown/Special Chars")
+      test("pegdown/Unclosed HTML blocks")
     }
 
     "pass the HTML suppression test" in {
@@ -137,6 +139,50 @@ class PegDownSpec extends AbstractPegDownSpec {
 
       testWithSerializer("pegdown/Plugins")
     }
+
+    "dispatch custom nodes to typed plugins" in {
+      import scala.collection.JavaConversions._
+      implicit val processor = new PegDownProcessor(Parboiled.createParser[Parser, AnyRef](classOf[Parser],
+        new java.lang.Integer(ALL), new java.lang.Long(1000), Parser.DefaultParseRunnerProvider,
+        PegDownPlugins.builder().withPlugin(classOf[PluginParser]).build()))
+      implicit val htmlSerializer = new ToHtmlSerializer(new LinkRenderer, List(
+        new TypedToHtmlSerializerPlugin {
+          def nodeClasses = Array[Class[_]](classOf[BlockPluginNode])
+          def visit(node: Node, visitor: Visitor, printer: Printer) = {
+            printer.print("<div class=\"blockplugin\">")
+            printer.print(node.asInstanceOf[BlockPluginNode].getText)
+            printer.print("</div>")
+            true
+          }
+        },
+        new TypedToHtmlSerializerPlugin {
+          def nodeClasses = Array[Class[_]](classOf[InlinePluginNode])
+          def visit(node: Node, visitor: Visitor, printer: Printer) = {
+            printer.print("<span class=\"inlineplugin\">")
+            printer.print(node.asInstanceOf[InlinePluginNode].getText)
+            printer.print("</span>")
+            true
+          }
+        }))
+
+      testWithSerializer("pegdown/Plugins")
+    }
+
+    "resolve reference links against the normalized reference index" in {
+      val astRoot = new PegDownProcessor().parseMarkdown("[Foo *Bar*][]\n\n[foo\n *bar*]: http://example.com\n".toCharArray)
+      val link = astRoot.getChildren.get(0).getChildren.get(0).getChildren.get(0).asInstanceOf[ast.RefLinkNode]
+      link.getKey === "foo<em>bar</em>"
+      astRoot.getReferenceIndex.keySet.toString === "[foo<em>bar</em>]"
+      (link.getReference eq astRoot.getReference("foo<em>bar</em>")) must beTrue
+    }
+
+    "match reference labels rendering to the same text" in {
+      val processor = new PegDownProcessor
+      processor.markdownToHtml("[foo\\_bar][]\n\n[foo_bar]: /one\n") === "<p><a href=\"/one\">foo_bar</a></p>"
+      processor.markdownToHtml("[Foo &amp; Bar][]\n\n[foo & bar]: /two\n") === "<p><a href=\"/two\">Foo &amp; Bar</a></p>"
+      processor.markdownToHtml("[*x*][]\n\n[_x_]: /three\n") === "<p><a href=\"/three\"><em>x</em></a></p>"
+      processor.markdownToHtml("[a_b_]\n\n[a\\_b\\_]: /four\n") === "<p><a href=\"/four\">a_b_</a></p>"
+    }
   }
 
 }
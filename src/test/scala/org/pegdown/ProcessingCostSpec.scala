@@ -0,0 +1,52 @@
+package org.pegdown
+
+import org.specs2.mutable.Specification
+import org.parboiled.Parboiled
+import Extensions._
+
+class ProcessingCostSpec extends Specification {
+
+  val markdown = "* *a*\n* b\n\n" * 200
+
+  "The measured processing" should {
+
+    "return the result together with the cost of parsing and serialization" in {
+      val processor = new PegDownProcessor
+      val measured = processor.measuredMarkdownToHtml(markdown)
+      measured.getValue === processor.markdownToHtml(markdown)
+      val cost = measured.getCost
+      cost.getParseCpuNanos must be_>(0L)
+      cost.getSerializeCpuNanos must be_>(0L)
+      cost.getCpuNanos === cost.getParseCpuNanos + cost.getSerializeCpuNanos
+      cost.getParseAllocatedBytes must be_>(markdown.length * 2L)
+      cost.getSerializeAllocatedBytes must be_>(measured.getValue.length * 2L)
+      cost.getAllocatedBytes === cost.getParseAllocatedBytes + cost.getSerializeAllocatedBytes
+    }
+
+    "measure parsing only for ASTs" in {
+      val measured = new PegDownProcessor().measuredParseMarkdown(markdown.toCharArray)
+      measured.getValue.getChildren.size === 1
+      measured.getCost.getParseAllocatedBytes must be_>(0L)
+      measured.getCost.getSerializeCpuNanos === 0
+    }
+
+    "report the cost of timed out parses" in {
+      val processor = new PegDownProcessor(Parboiled.createParser[Parser, AnyRef](classOf[Parser],
+        new java.lang.Integer(NONE), new java.lang.Long(-1), Parser.DefaultParseRunnerProvider))
+      val measured = processor.measuredMarkdownToHtml(markdown)
+      measured.getValue must beNull
+      measured.getCost.getParseCpuNanos must be_>(0L)
+      measured.getCost.getSerializeAllocatedBytes === 0
+      processor.measuredParseMarkdown(markdown.toCharArray).getValue must beNull
+    }
+
+    "not charge results served from the render cache" in {
+      val processor = new PegDownProcessor(Parboiled.createParser[Parser, AnyRef](classOf[Parser],
+        new java.lang.Integer(NONE), new java.lang.Long(1000), Parser.DefaultParseRunnerProvider),
+        new RenderCache(1000000))
+      processor.measuredMarkdownToHtml(markdown).getCost.getCpuNanos must be_>(0L)
+      processor.measuredMarkdownToHtml(markdown).getCost.getCpuNanos === 0
+    }
+  }
+
+}
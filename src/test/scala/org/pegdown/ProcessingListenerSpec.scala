@@ -0,0 +1,54 @@
+package org.pegdown
+
+import org.specs2.mutable.Specification
+import org.parboiled.Parboiled
+import scala.collection.JavaConversions._
+import scala.collection.mutable.ListBuffer
+import ast._
+import Extensions._
+
+class ProcessingListenerSpec extends Specification {
+
+  class RecordingListener extends ProcessingListener {
+    val events = ListBuffer.empty[String]
+    var counts = Map.empty[Class[_ <: Node], Int]
+    override def sourcePrepared(sourceLength: Int, nanos: Long) { events += "prepared " + sourceLength }
+    override def parsed(depth: Int, inputLength: Int, nanos: Long) { events += "parsed " + depth }
+    override def parsingTimedOut(inputLength: Int, nanos: Long) { events += "timeout " + inputLength }
+    override def isCountingNodes = true
+    override def nodesCounted(counts: java.util.Map[Class[_ <: Node], Integer]) {
+      this.counts = counts.toMap.mapValues(_.intValue)
+    }
+    override def serialized(htmlLength: Int, nanos: Long) { events += "serialized " + htmlLength }
+  }
+
+  def processor(listener: ProcessingListener, maxParsingTimeInMillis: Long = 1000) =
+    new PegDownProcessor(Parboiled.createParser[Parser, AnyRef](classOf[Parser], new java.lang.Integer(NONE),
+      new java.lang.Long(maxParsingTimeInMillis), Parser.DefaultParseRunnerProvider), null, null, listener)
+
+  "The ProcessingListener" should {
+
+    "be notified of all processing phases including nested parses" in {
+      val listener = new RecordingListener
+      val html = processor(listener).markdownToHtml("* a\n* b\n\n> c")
+      listener.events.toList === List("prepared 12", "parsed 1", "parsed 1", "parsed 1", "parsed 0",
+        "serialized " + html.length)
+    }
+
+    "receive the node counts per type" in {
+      val listener = new RecordingListener
+      processor(listener).parseMarkdown("* a\n* b\n\nc".toCharArray)
+      listener.counts(classOf[RootNode]) === 3 // the document and the two list items
+      listener.counts(classOf[BulletListNode]) === 1
+      listener.counts(classOf[ListItemNode]) === 2
+      listener.counts(classOf[ParaNode]) === 1
+    }
+
+    "be notified of parsing timeouts" in {
+      val listener = new RecordingListener
+      processor(listener, maxParsingTimeInMillis = -1).markdownToHtml("abc") must beNull
+      listener.events.toList === List("prepared 3", "timeout 5")
+    }
+  }
+
+}
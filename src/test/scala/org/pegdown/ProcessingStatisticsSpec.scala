@@ -0,0 +1,79 @@
+package org.pegdown
+
+import org.specs2.mutable.Specification
+import org.parboiled.Parboiled
+import java.lang.management.ManagementFactory
+import Extensions._
+
+class ProcessingStatisticsSpec extends Specification {
+
+  def processor(statistics: ProcessingStatistics, renderCache: RenderCache = null, maxParsingTimeInMillis: Long = 1000) =
+    new PegDownProcessor(Parboiled.createParser[Parser, AnyRef](classOf[Parser], new java.lang.Integer(NONE),
+      new java.lang.Long(maxParsingTimeInMillis), Parser.DefaultParseRunnerProvider), renderCache, null, statistics)
+
+  "The ProcessingStatistics" should {
+
+    "count documents, characters and timeouts" in {
+      val statistics = new ProcessingStatistics
+      val pegdown = processor(statistics)
+      val html = pegdown.markdownToHtml("* a\n* b")
+      pegdown.markdownToHtml("c")
+      processor(statistics, maxParsingTimeInMillis = -1).markdownToHtml("d") must beNull
+      statistics.getDocumentCount === 2
+      statistics.getSourceCharCount === 9
+      statistics.getHtmlCharCount === html.length + "<p>c</p>".length
+      statistics.getParsingTimeoutCount === 1
+      statistics.getParseTimeMedian must be_>(0.0)
+      statistics.getParseTimeMedian must be_<=(statistics.getParseTimeMax)
+      statistics.getSerializeTime99thPercentile must be_<=(statistics.getSerializeTimeMax)
+      statistics.reset()
+      statistics.getDocumentCount === 0
+      statistics.getParseTimeMax === 0.0
+    }
+
+    "report the hit rate of the render cache" in {
+      val cache = new RenderCache(100000)
+      val statistics = new ProcessingStatistics(cache, null)
+      val pegdown = processor(statistics, cache)
+      (1 to 4).foreach(_ => pegdown.markdownToHtml("*a*"))
+      statistics.getDocumentCount === 1
+      statistics.getRenderCacheHitRate === 0.75
+      statistics.getBlockCacheHitRate === 0.0
+    }
+
+    "be accessible via JMX" in {
+      val statistics = new ProcessingStatistics().register("spec")
+      try {
+        processor(statistics).markdownToHtml("abc")
+        val server = ManagementFactory.getPlatformMBeanServer
+        statistics.getObjectName.toString === "org.pegdown:type=ProcessingStatistics,name=\"spec\""
+        server.getAttribute(statistics.getObjectName, "DocumentCount") === 1L
+        server.invoke(statistics.getObjectName, "reset", Array[AnyRef](), Array[String]())
+        server.getAttribute(statistics.getObjectName, "DocumentCount") === 0L
+      } finally statistics.unregister()
+      ManagementFactory.getPlatformMBeanServer.queryNames(null, null).toString must not contain("ProcessingStatistics")
+    }
+
+    "expose the utilization of an attached pool" in {
+      val statistics = new ProcessingStatistics
+      val pool = new PegDownProcessorPool(NONE) {
+        override def createProcessor() = processor(statistics)
+      }
+      statistics.setPool(pool).register("pool")
+      try {
+        val processor = pool.borrow()
+        pool.release(pool.borrow())
+        val server = ManagementFactory.getPlatformMBeanServer
+        server.getAttribute(statistics.getObjectName, "PoolProcessorCount") === 2
+        server.getAttribute(statistics.getObjectName, "PoolBorrowedCount") === 1
+        server.getAttribute(statistics.getObjectName, "PoolIdleCount") === 1
+        server.getAttribute(statistics.getObjectName, "PoolAsyncRenderingCount") === 0
+        pool.release(processor)
+        pool.markdownToHtml("abc")
+        statistics.getDocumentCount === 1
+        statistics.getPoolBorrowedCount === 0
+      } finally statistics.unregister()
+    }
+  }
+
+}
@@ -0,0 +1,58 @@
+package org.pegdown
+
+import org.specs2.mutable.Specification
+import org.parboiled.Parboiled
+import scala.collection.JavaConversions._
+import Extensions._
+
+class ProfilingParseRunnerProviderSpec extends Specification {
+
+  def processor(provider: ProfilingParseRunnerProvider) = new PegDownProcessor(
+    Parboiled.createParser[Parser, AnyRef](classOf[Parser], new java.lang.Integer(NONE), new java.lang.Long(1000), provider))
+
+  "The ProfilingParseRunnerProvider" should {
+
+    "only profile every n-th parse" in {
+      val provider = new ProfilingParseRunnerProvider(3)
+      val pegdown = processor(provider)
+      (1 to 7).foreach(_ => pegdown.markdownToHtml("Some *emphasized* text"))
+      provider.getParseCount === 7
+      provider.getProfiledParseCount === 2
+      provider.getTopRules(Integer.MAX_VALUE).find(_.getLabel == "Root").get.getInvocations === 2
+    }
+
+    "profile the nested parses of a document together with the document" in {
+      val provider = new ProfilingParseRunnerProvider(2)
+      val pegdown = processor(provider)
+      (1 to 6).foreach(_ => pegdown.markdownToHtml("* a\n* b\n\n> quote\n> > nested\n\ntext"))
+      provider.getParseCount === 6
+      provider.getProfiledParseCount === 3
+      // every document is parsed with its root rule five times: once at the top and four times for nested blocks
+      provider.getTopRules(Integer.MAX_VALUE).find(_.getLabel == "Root").get.getInvocations === 15
+    }
+
+    "aggregate invocations, matches and times per rule" in {
+      val provider = new ProfilingParseRunnerProvider(1)
+      processor(provider).markdownToHtml("Some *emphasized* text\n\nand a second paragraph")
+      val rules = provider.getTopRules(Integer.MAX_VALUE).map(rule => rule.getLabel -> rule).toMap
+      rules("Root").getMatches === 1
+      rules("Para").getMatches === 2
+      rules("Emph").getMatches === 1
+      rules("Para").getMismatches === 1
+      rules("Root").getTotalNanos must be_>=(rules("Para").getTotalNanos)
+      rules.values.forall(rule => rule.getSelfNanos <= rule.getTotalNanos) must beTrue
+    }
+
+    "report the rules with the highest self times" in {
+      val provider = new ProfilingParseRunnerProvider(1)
+      processor(provider).markdownToHtml("Some *emphasized* text")
+      val top = provider.getTopRules(5)
+      top.size === 5
+      top.map(_.getSelfNanos).toList === top.map(_.getSelfNanos).toList.sorted.reverse
+      provider.printReport(5).split("\n").length === 7
+      provider.reset()
+      provider.getTopRules(5) must beEmpty
+    }
+  }
+
+}
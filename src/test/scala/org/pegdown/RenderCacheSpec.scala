@@ -0,0 +1,142 @@
+package org.pegdown
+
+import org.specs2.mutable.Specification
+import org.parboiled.Parboiled
+import java.util.concurrent.{Callable, CountDownLatch, Executors}
+import java.util.concurrent.atomic.AtomicReference
+import org.pegdown.ast.ExpLinkNode
+import org.pegdown.plugins.PegDownPlugins
+import Extensions._
+
+class RenderCacheSpec extends Specification {
+
+  def render(html: String) = new Callable[String] { def call() = html }
+
+  "The RenderCache" should {
+
+    "serve repeated markdownToHtml calls from the cache" in {
+      val cache = new RenderCache(1024 * 1024)
+      val processor = new PegDownProcessor(Parboiled.createParser[Parser, AnyRef](classOf[Parser],
+        new java.lang.Integer(ALL), new java.lang.Long(1000), Parser.DefaultParseRunnerProvider), cache)
+      val first = processor.markdownToHtml("Some *markdown*")
+      val second = processor.markdownToHtml("Some *markdown*")
+      first === "<p>Some <em>markdown</em></p>"
+      (second eq first) must beTrue
+      cache.getMissCount === 1
+      cache.getHitCount === 1
+    }
+
+    "distinguish keys by source and context" in {
+      RenderCache.createKey("abc".toCharArray, "x") === RenderCache.createKey("abc".toCharArray, "x")
+      RenderCache.createKey("abc".toCharArray, "x") !== RenderCache.createKey("abd".toCharArray, "x")
+      RenderCache.createKey("abc".toCharArray, "x") !== RenderCache.createKey("abc".toCharArray, "y")
+    }
+
+    "evict the least recently used entries when exceeding its size bound" in {
+      val cache = new RenderCache(1200) // room for two entries
+      cache.get("a", render("x" * 150))
+      cache.get("b", render("y" * 150))
+      cache.get("a", render("never rendered")) === "x" * 150
+      cache.get("c", render("z" * 150))
+      cache.getEvictionCount === 1
+      cache.get("b", render("rendered again")) === "rendered again"
+      cache.get("c", render("never rendered")) === "z" * 150
+    }
+
+    "share the HTML of top-level blocks across documents" in {
+      val cache = new RenderCache(1024 * 1024)
+      val processor = new PegDownProcessor(Parboiled.createParser[Parser, AnyRef](classOf[Parser],
+        new java.lang.Integer(ALL), new java.lang.Long(1000), Parser.DefaultParseRunnerProvider), null, cache)
+      processor.markdownToHtml("# Header\n\nFirst [link][r]\n\n[r]: /first") ===
+        "<h1>Header</h1><p>First <a href=\"/first\">link</a></p>"
+      processor.markdownToHtml("# Header\n\nFirst [link][r]\n\n[r]: /second") ===
+        "<h1>Header</h1><p>First <a href=\"/second\">link</a></p>"
+      cache.getHitCount === 1 // only the header block is shared, the paragraph depends on the reference
+    }
+
+    "key blocks only on the abbreviations occurring in them" in {
+      val cache = new RenderCache(1024 * 1024)
+      val processor = new PegDownProcessor(new PegDownProcessor(ABBREVIATIONS).parser, null, cache)
+      processor.markdownToHtml("Plain text\n\nUses HTML\n\n*[HTML]: Hyper") ===
+        "<p>Plain text</p><p>Uses <abbr title=\"Hyper\">HTML</abbr></p>"
+      processor.markdownToHtml("Plain text\n\nUses HTML\n\n*[HTML]: Hyper\n*[CSS]: Style") ===
+        "<p>Plain text</p><p>Uses <abbr title=\"Hyper\">HTML</abbr></p>"
+      cache.getHitCount === 2 // both paragraphs are shared, only the definitions differ
+      processor.markdownToHtml("Plain text\n\nUses HTML\n\n*[HTML]: Other") ===
+        "<p>Plain text</p><p>Uses <abbr title=\"Other\">HTML</abbr></p>"
+      cache.getHitCount === 3
+    }
+
+    "identify plugins by the cache identities of their parsers" in {
+      val plugins = PegDownPlugins.builder().withPlugin(classOf[PluginParser]).build()
+      plugins.getCacheIdentity === "parsers=[org.pegdown.PluginParser[1]];chars=[]"
+      PegDownPlugins.builder(plugins).build().getCacheIdentity === plugins.getCacheIdentity
+      PegDownPlugins.NONE.getCacheIdentity === "parsers=[];chars=[]"
+    }
+
+    "not cache the output of plugin rules without a cache identity" in {
+      val rules = PegDownPlugins.builder()
+        .withInlinePluginRules(Parboiled.createParser[PluginParser, AnyRef](classOf[PluginParser]).InlinePlugin).build()
+      rules.getCacheIdentity must beNull
+      PegDownPlugins.builder(rules).withPlugin(classOf[PluginParser]).build().getCacheIdentity must beNull
+      val cache = new RenderCache(1024 * 1024)
+      val processor = new PegDownProcessor(Parboiled.createParser[Parser, AnyRef](classOf[Parser],
+        new java.lang.Integer(NONE), new java.lang.Long(1000), Parser.DefaultParseRunnerProvider, rules), cache, cache)
+      processor.markdownToHtml("Some *text*") === "<p>Some <em>text</em></p>"
+      cache.size === 0
+      cache.getMissCount === 0
+    }
+
+    "not cache the output of LinkRenderer subclasses without a cache identity" in {
+      val cache = new RenderCache(1024 * 1024)
+      val processor = new PegDownProcessor(new PegDownProcessor(NONE).parser, cache, cache)
+      var tenant = "a"
+      val linkRenderer = new LinkRenderer {
+        override def render(node: ExpLinkNode, text: String) = new LinkRenderer.Rendering("/" + tenant + node.url, text)
+      }
+      processor.markdownToHtml("[x](/y)", linkRenderer) === "<p><a href=\"/a/y\">x</a></p>"
+      tenant = "b"
+      processor.markdownToHtml("[x](/y)", linkRenderer) === "<p><a href=\"/b/y\">x</a></p>"
+      cache.size === 0
+    }
+
+    "not cache null results" in {
+      val cache = new RenderCache(1000)
+      cache.get("a", render(null)) must beNull
+      cache.size === 0
+    }
+
+    "not hand the result of a cancelled rendering to threads waiting for it" in {
+      val cache = new RenderCache(1024 * 1024)
+      val started, proceed = new CountDownLatch(1)
+      def parser = Parboiled.createParser[Parser, AnyRef](classOf[Parser], new java.lang.Integer(NONE),
+        new java.lang.Long(1000), Parser.DefaultParseRunnerProvider)
+      val cancelled = new PegDownProcessor(parser, cache) {
+        override def prepareSource(source: Array[Char]): Array[Char] = {
+          started.countDown()
+          proceed.await()
+          super.prepareSource(source)
+        }
+      }
+      val waiting = new PegDownProcessor(parser, cache)
+      val token = new CancellationToken
+      val executor = Executors.newFixedThreadPool(2)
+      try {
+        val first = executor.submit(new Callable[String] { def call() = cancelled.markdownToHtml("*a*", token) })
+        started.await()
+        val waitingThread = new AtomicReference[Thread]
+        val second = executor.submit(new Callable[String] {
+          def call() = { waitingThread.set(Thread.currentThread); waiting.markdownToHtml("*a*") }
+        })
+        // the second rendering waits for the first one, which is then cancelled
+        while (waitingThread.get == null || waitingThread.get.getState != Thread.State.WAITING) Thread.`yield`()
+        token.cancel()
+        proceed.countDown()
+        first.get must beNull
+        second.get === "<p><em>a</em></p>"
+        cache.getHitCount === 0
+        cache.getMissCount === 2
+      } finally executor.shutdown()
+    }
+  }
+}
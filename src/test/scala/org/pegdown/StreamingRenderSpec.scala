@@ -0,0 +1,80 @@
+package org.pegdown
+
+import org.specs2.mutable.Specification
+import org.parboiled.Parboiled
+import java.io.{IOException, StringWriter, Writer}
+import scala.collection.JavaConversions._
+import Extensions._
+
+class StreamingRenderSpec extends Specification {
+
+  def render(markdown: String, processor: PegDownProcessor = new PegDownProcessor(ALL)) = {
+    val writer = new StringWriter
+    processor.markdownToHtml(markdown.toCharArray, writer) must beTrue
+    writer.toString
+  }
+
+  "Rendering to a Writer" should {
+
+    "produce the same HTML as rendering the complete document" in {
+      val markdown = new MarkdownGenerator(5).referenceLinkRatio(1).generate(20000)
+      val processor = new PegDownProcessor(ALL & ~AUTOLINKS) // no randomly obfuscated email links
+      render(markdown, processor) === processor.markdownToHtml(markdown)
+    }
+
+    "resolve references and abbreviations defined after their use" in {
+      val markdown = "A [link][r] to the HTML spec.\n\n[r]: /url \"Title\"\n\n*[HTML]: Hyper Text Markup Language"
+      render(markdown) === new PegDownProcessor(ALL).markdownToHtml(markdown)
+      render(markdown) must contain("<a href=\"/url\" title=\"Title\">link</a>")
+      render(markdown) must contain("<abbr title=\"Hyper Text Markup Language\">HTML</abbr>")
+    }
+
+    "write the HTML of each block as soon as it has been parsed" in {
+      val writes = new java.util.ArrayList[String]
+      val writer = new Writer {
+        def write(chars: Array[Char], offset: Int, length: Int) { writes.add(new String(chars, offset, length)) }
+        override def write(string: String) { writes.add(string) }
+        def flush() {}
+        def close() {}
+      }
+      new PegDownProcessor().markdownToHtml("# Title\n\ntext\n\n* a\n* b".toCharArray, writer)
+      writes.toList === List("<h1>Title</h1>", "<p>text</p>", "\n<ul>\n  <li>a</li>\n  <li>b</li>\n</ul>")
+    }
+
+    "not take lines of fenced code and HTML blocks for definitions" in {
+      val fenced = "See [x][] here.\n\n~~~\ncode\n\n[x]: /evil\n~~~\n"
+      val html = "See [x][] here.\n\n<div>\n\n[x]: /evil\n\n</div>\n"
+      render(fenced) === new PegDownProcessor(ALL).markdownToHtml(fenced)
+      render(html) === new PegDownProcessor(ALL).markdownToHtml(html)
+      render(html, new PegDownProcessor) === new PegDownProcessor().markdownToHtml(html)
+      render(fenced) must not contain("/evil\">")
+      render(html) must not contain("/evil\">")
+      val following = "See [x][] here.\n\n<div>a</div>\n\n[x]: /good\n"
+      render(following) === new PegDownProcessor(ALL).markdownToHtml(following)
+    }
+
+    "return false on parsing timeouts" in {
+      val processor = new PegDownProcessor(Parboiled.createParser[Parser, AnyRef](classOf[Parser],
+        new java.lang.Integer(NONE), new java.lang.Long(-1), Parser.DefaultParseRunnerProvider))
+      processor.markdownToHtml("text".toCharArray, new StringWriter) must beFalse
+    }
+
+    "propagate the IOExceptions of the Writer" in {
+      val writer = new StringWriter {
+        override def write(string: String) { throw new IOException("closed") }
+      }
+      new PegDownProcessor().markdownToHtml("text".toCharArray, writer) must throwAn[IOException]
+    }
+  }
+
+  "The definitions scan" should {
+
+    "find the references and abbreviations at the start of blocks" in {
+      val root = new PegDownProcessor(ALL).parser.scanDefinitions(
+        ("[a]: /a\n[b]: /b\n\ntext\n[c]: /c\n\n    [d]: /d\n\n*[e]: E\n\n").toCharArray)
+      root.getReferences.map(_.getUrl).toList === List("/a", "/b")
+      root.getAbbreviations.size === 1
+    }
+  }
+
+}
@@ -0,0 +1,85 @@
+package org.pegdown
+
+import org.specs2.mutable.Specification
+import java.io.{ByteArrayOutputStream, File, FileOutputStream, StringWriter}
+import java.nio.ByteBuffer
+import org.parboiled.Parboiled
+import Extensions._
+
+class Utf8InputBufferSpec extends Specification {
+
+  def chars(bytes: Array[Byte]) = new Utf8InputBuffer(ByteBuffer.wrap(bytes)).getChars
+
+  "The Utf8InputBuffer" should {
+
+    "decode like the JDK" in {
+      val text = "ASCII, \u00FCml\u00E4uts, \u4E2D\u6587 and \uD83D\uDE00\n" * 1000
+      val decoded = chars(text.getBytes("UTF-8"))
+      decoded.length === text.length
+      decoded.toString === text
+      (text.length - 1 to 0 by -13).forall(i => decoded.charAt(i) == text.charAt(i)) must beTrue
+      decoded.subSequence(5000, 9000).toString === text.substring(5000, 9000)
+    }
+
+    "decode surrogate pairs spanning two chunks" in {
+      val text = "x" * 4095 + "\uD83D\uDE00yz"
+      chars(text.getBytes("UTF-8")).toString === text
+    }
+
+    "replace malformed input like the JDK" in {
+      val bytes = Array(0x61, 0xC3, 0x62, 0xFF, 0xED, 0xA0, 0x80, 0xE4, 0xB8).map(_.toByte)
+      chars(bytes).toString === new String(bytes, "UTF-8")
+    }
+
+    "detect ASCII input" in {
+      new Utf8InputBuffer(ByteBuffer.wrap("abc".getBytes("UTF-8"))).isAscii must beTrue
+      new Utf8InputBuffer(ByteBuffer.wrap("\u00E4bc".getBytes("UTF-8"))).isAscii must beFalse
+    }
+  }
+
+  "The PegDownProcessor" should {
+
+    "render memory-mapped files like Strings" in {
+      val markdown = new MarkdownGenerator(3).referenceLinkRatio(1).generate(5000) +
+        "\n\n\u00DCml\u00E4uts and \uD83D\uDE00 in a [link][r].\n\n[r]: /\u00FCrl\n"
+      val file = File.createTempFile("pegdown", ".md")
+      file.deleteOnExit()
+      val out = new FileOutputStream(file)
+      try out.write(markdown.getBytes("UTF-8")) finally out.close()
+
+      val processor = new PegDownProcessor(ALL & ~AUTOLINKS) // no randomly obfuscated email links
+      val writer = new StringWriter
+      processor.markdownFileToHtml(file, writer) must beTrue
+      writer.toString === processor.markdownToHtml(markdown)
+    }
+
+    "render UTF-8 bytes like Strings" in {
+      val markdown = "# \u00DCml\u00E4uts\n\nSome *text* with \uD83D\uDE00 and a [link][r].\n\n[r]: /\u00FCrl\n"
+      val out = new ByteArrayOutputStream
+      new PegDownProcessor().markdownToHtml(markdown.getBytes("UTF-8"), out) must beTrue
+      new String(out.toByteArray, "UTF-8") === new PegDownProcessor().markdownToHtml(markdown)
+    }
+
+    "render UTF-8 bytes like Strings block by block, with nested definitions and a cache" in {
+      val markdown = "> [r]: /quoted\n\n* [link][r] and \u00E4\n* b\n\n|a|\n|-|\n|\u00DF|\n"
+      val bytes = markdown.getBytes("UTF-8") :+ 0xFF.toByte
+      val expected = new PegDownProcessor(ALL).markdownToHtml(new String(bytes, "UTF-8"))
+      expected must contain("/quoted")
+      val out = new ByteArrayOutputStream
+      new PegDownProcessor(ALL).markdownToHtml(bytes, out) must beTrue
+      new String(out.toByteArray, "UTF-8") === expected
+      val cached = new PegDownProcessor(Parboiled.createParser[Parser, AnyRef](classOf[Parser], new java.lang.Integer(ALL),
+        new java.lang.Long(1000), Parser.DefaultParseRunnerProvider), new RenderCache(100000))
+      out.reset()
+      cached.markdownToHtml(bytes, out) must beTrue
+      new String(out.toByteArray, "UTF-8") === expected
+    }
+
+    "not write anything if the parsing times out" in {
+      val out = new ByteArrayOutputStream
+      new PegDownProcessor(NONE, -1L).markdownToHtml("abc".getBytes("UTF-8"), out) must beFalse
+      out.size === 0
+    }
+  }
+
+}
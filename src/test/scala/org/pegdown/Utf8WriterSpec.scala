@@ -0,0 +1,36 @@
+package org.pegdown
+
+import org.specs2.mutable.Specification
+import java.io.ByteArrayOutputStream
+
+class Utf8WriterSpec extends Specification {
+
+  def encode(bufferSize: Int)(write: Utf8Writer => Unit) = {
+    val out = new ByteArrayOutputStream
+    val writer = new Utf8Writer(out, bufferSize)
+    write(writer)
+    writer.finish()
+    out.toByteArray.toList
+  }
+
+  "The Utf8Writer" should {
+
+    val text = "ASCII <p>, \u00FCml\u00E4uts, \u4E2D\u6587 and \uD83D\uDE00\n" * 100
+
+    "encode like the JDK" in {
+      encode(8192)(_.write(text)) === text.getBytes("UTF-8").toList
+      encode(8192)(_.write(text.toCharArray)) === text.getBytes("UTF-8").toList
+    }
+
+    "encode surrogate pairs split across writes and buffer boundaries" in {
+      encode(5)(writer => text.foreach(c => writer.write(c))) === text.getBytes("UTF-8").toList
+      encode(7)(writer => text.grouped(3).foreach(writer.write(_))) === text.getBytes("UTF-8").toList
+    }
+
+    "encode unpaired surrogates as '?'" in {
+      val unpaired = "a\uD83Db\uDE00c\uD83D"
+      encode(16)(_.write(unpaired)) === unpaired.getBytes("UTF-8").toList
+    }
+  }
+
+}